@@ -0,0 +1,89 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks of parser, model and tester hot paths.
+ * Every benchmark runs fixed warmup and measurement iterations on data generated with fixed seeds,
+ * so results of different commits can be compared on the same machine.
+ * Results are printed as tab separated table.
+ * Usage: BenchmarkRunner [-w warmup iterations] [-i measurement iterations] [name filter regex]
+ */
+public class BenchmarkRunner {
+    static final long SEED = 42;
+
+    private int warmup = 5;
+    private int iterations = 10;
+    private Pattern filter = Pattern.compile(".*");
+
+    /**
+     * Benchmark operation
+     */
+    interface Operation {
+        /**
+         * @return operations count done in this invocation
+         */
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-w":
+                    runner.warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    runner.iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    runner.filter = Pattern.compile(args[i]);
+            }
+        }
+
+        System.out.println(String.format("# java %s, %s %s, %d cpus, warmup %d, iterations %d",
+                System.getProperty("java.version"), System.getProperty("os.name"), System.getProperty("os.arch"),
+                Runtime.getRuntime().availableProcessors(), runner.warmup, runner.iterations));
+        System.out.println("Benchmark\tParam\tScore\tError\tUnits");
+
+        ParserBenchmarks.run(runner);
+        ModelBenchmarks.run(runner);
+        TesterBenchmarks.run(runner);
+    }
+
+    /**
+     * @return true if benchmark is selected by filter
+     */
+    boolean isEnabled(String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Measure operation throughput and print result
+     * @param name - benchmark name
+     * @param param - benchmark parameter
+     * @param operation - measured operation
+     */
+    void measure(String name, Object param, Operation operation) throws Exception {
+        if (!isEnabled(name)) {
+            return;
+        }
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            System.gc();
+            long start = System.nanoTime();
+            long ops = operation.run();
+            scores[i] = ops * 1e9 / (System.nanoTime() - start);
+        }
+
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double variance = Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum() /
+                Math.max(1, iterations - 1);
+        String result = String.format(Locale.ROOT, "%s\t%s\t%.1f\t%.1f\tops/s",
+                name, param, mean, Math.sqrt(variance));
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.regex.Pattern;
+
+/**
+ * Behaviour checks of parser and tester, run next to benchmarks on generated data with fixed seeds.
+ * Every check prints its result line, the exit code is 1 when any check fails.
+ * Usage: CheckRunner [name filter regex]
+ */
+public class CheckRunner {
+    static final long SEED = 42;
+
+    private Pattern filter = Pattern.compile(".*");
+    private int failed = 0;
+
+    /**
+     * Checked behaviour
+     */
+    interface Check {
+        /**
+         * @return description of checked cases
+         * @throws AssertionError if behaviour is wrong
+         */
+        String run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CheckRunner runner = new CheckRunner();
+        if (args.length > 0) {
+            runner.filter = Pattern.compile(args[0]);
+        }
+
+        ParserChecks.run(runner);
+        TesterChecks.run(runner);
+
+        System.exit((runner.failed > 0) ? 1 : 0);
+    }
+
+    /**
+     * @return true if check is selected by filter
+     */
+    boolean isEnabled(String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Run check and print its result
+     * @param name - check name
+     * @param check - checked behaviour
+     */
+    void check(String name, Check check) throws Exception {
+        if (!isEnabled(name)) {
+            return;
+        }
+        try {
+            System.out.println(name + "\tOK\t" + check.run());
+        } catch (AssertionError e) {
+            failed++;
+            System.out.println(name + "\tFAIL\t" + e.getMessage());
+        }
+    }
+
+    /**
+     * @throws AssertionError with message if condition is false
+     */
+    static void verify(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
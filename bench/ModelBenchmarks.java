@@ -0,0 +1,89 @@
+import util.ServerKey;
+import util.net.ProxyType;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.TableRowSorter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Bulk insert, de-duplication and sort cost
+ */
+class ModelBenchmarks {
+    private static final int[] SIZES = {10_000, 100_000, 1_000_000};
+
+    /**
+     * Generate servers, every second one duplicates one of the others
+     */
+    private static long[] generateKeys(int count, Random random) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int n = (i % 2 == 0) ? i : random.nextInt(Math.max(1, i));
+            keys[i] = ServerKey.of(ProxyType.HTTP, (10 << 24) | (n & 0xFFFFFF), 8080 + (n >> 24));
+        }
+        return keys;
+    }
+
+    private static ServerStatus randomStatus(Random random) {
+        ServerStatus.Status[] values = ServerStatus.Status.values();
+        ServerStatus status = new ServerStatus(values[random.nextInt(values.length)]);
+        status.setPing(random.nextInt(20_000));
+        return status;
+    }
+
+    static void run(BenchmarkRunner runner) throws Exception {
+        for (int size : SIZES) {
+            long[] keys = generateKeys(size, new Random(BenchmarkRunner.SEED));
+
+            runner.measure("model.addEntries", size, () -> {
+                ServersModel model = new ServersModel();
+                model.addEntries(keys, keys.length);
+                return keys.length;
+            });
+
+            runner.measure("model.addEntry", size, () -> {
+                ServersModel model = new ServersModel();
+                for (long key : keys) {
+                    model.addEntry(key);
+                }
+                return keys.length;
+            });
+        }
+
+        for (int size : SIZES) {
+            Random random = new Random(BenchmarkRunner.SEED);
+            ServerStatus[] statuses = new ServerStatus[size];
+            for (int i = 0; i < size; i++) {
+                statuses[i] = randomStatus(random);
+            }
+
+            runner.measure("sort.statusComparator", size, () -> {
+                ServerStatus[] copy = statuses.clone();
+                Arrays.sort(copy, new ServerStatus.Comparator());
+                return copy.length;
+            });
+
+            if (!runner.isEnabled("sort.rowSorter")) {
+                continue;
+            }
+            ServersModel model = new ServersModel();
+            long[] keys = generateKeys(size, new Random(BenchmarkRunner.SEED));
+            model.addEntries(keys, keys.length);
+            for (int row = 0; row < model.getRowCount(); row++) {
+                model.changed(model.getKey(row), statuses[random.nextInt(size)]);
+            }
+            model.flushUpdates();
+            TableRowSorter<ServersModel> sorter = new TableRowSorter<>(model);
+            sorter.setComparator(3, new ServerStatus.Comparator());
+            sorter.setSortKeys(Collections.singletonList(
+                    new RowSorter.SortKey(3, SortOrder.ASCENDING)));
+
+            runner.measure("sort.rowSorter", size, () -> {
+                sorter.sort();
+                return model.getRowCount();
+            });
+        }
+    }
+}
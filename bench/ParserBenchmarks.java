@@ -0,0 +1,81 @@
+import util.ServerParser;
+import util.ServerScanner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Line parsing throughput
+ */
+class ParserBenchmarks {
+    private static final int LINES = 100_000;
+    private static final String[] TYPES = {"http", "HTTPS", "socks", "ftp"};
+
+    /**
+     * Generate proxy list lines in the formats seen in public lists, with some garbage lines
+     * @param count - lines count
+     * @param random - data generator
+     */
+    static String[] generateLines(int count, Random random) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            String type = TYPES[random.nextInt(TYPES.length)];
+            String ip = (1 + random.nextInt(223)) + "." + random.nextInt(256) + "." +
+                    random.nextInt(256) + "." + random.nextInt(256);
+            int port = 1 + random.nextInt(65535);
+            switch (random.nextInt(5)) {
+                case 0:
+                    lines[i] = type + " " + ip + ":" + port;
+                    break;
+                case 1:
+                    lines[i] = ip + ":" + port + "\t" + type;
+                    break;
+                case 2:
+                    lines[i] = type + "://" + ip + ":" + port + " # checked 2019-08-14 12:00";
+                    break;
+                case 3:
+                    lines[i] = ip + "\t" + port + "\t" + type + "\tUS\telite";
+                    break;
+                default:
+                    lines[i] = "# comment line " + random.nextInt();
+            }
+        }
+        return lines;
+    }
+
+    static void run(BenchmarkRunner runner) throws Exception {
+        String[] lines = generateLines(LINES, new Random(BenchmarkRunner.SEED));
+        byte[][] bytes = new byte[lines.length][];
+        for (int i = 0; i < lines.length; i++) {
+            bytes[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        runner.measure("parser.scanString", LINES, () -> {
+            long sum = 0;
+            for (String line : lines) {
+                sum += ServerParser.scan(line).getPort();
+            }
+            return (sum >= 0) ? lines.length : 0;
+        });
+
+        ServerScanner scanner = new ServerScanner();
+        runner.measure("parser.scanBytes", LINES, () -> {
+            long sum = 0;
+            for (byte[] line : bytes) {
+                scanner.scan(line, 0, line.length);
+                sum += scanner.getPort();
+            }
+            return (sum >= 0) ? bytes.length : 0;
+        });
+
+        runner.measure("parser.parseKey", LINES, () -> {
+            int count = 0;
+            for (String line : lines) {
+                if (ServerParser.parseKey(line) >= 0) {
+                    count++;
+                }
+            }
+            return (count >= 0) ? lines.length : 0;
+        });
+    }
+}
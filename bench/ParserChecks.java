@@ -0,0 +1,148 @@
+import util.ServerScanner;
+import util.net.ProxyType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Differential check of ServerScanner against reference regular expressions: the former regex parser
+ * with its later extensions, SOCKS versions and host entries of lines without IPv4 literal.
+ * Corpus is hand-written edge cases, proxy list lines and random lines of address-like characters.
+ */
+class ParserChecks {
+    private static final int RANDOM_LINES = 1_000_000;
+    private static final String ALPHABET = "0123456789012345678901234567890123456789....::::  \t/-_[]%@#" +
+            "abcdefxyzABCHTPSOKhttpsocksftp";
+    private static final String[] WORDS = {"http", "HTTPS", "socks", "Socks4", "socks4a", "SOCKS5", "ftp",
+            "socks45", "httpx", "example.com", "proxy.example.org.", "a..b.com", "host.1", "v1.2.3", "[::1]",
+            "[2001:db8::1]", "[fe80::1%eth0]", "[abc]", "255.255.255.255", "256.1.1.1", "01.2.3.4", "1.2.3.4.5",
+            "10.0.0.1.example.com", "user@mail.example.org", "localhost", ":", "::", "80", "65535", "99999", "123456"};
+    private static final String[] CORPUS = {
+            "", "http", "1.2.3.4", "http 1.2.3.4:8080", "HTTPS://1.2.3.4:443/", "1.2.3.4:80\tsocks",
+            "socks4a 1.2.3.4 1080", "SOCKS5 1.2.3.4:1080", "socks45 1.2.3.4:1", "255.255.255.2555:1",
+            "1.2.3.456:80", "001.2.3.4:1", "0.0.0.0:0", "1.2.3.4:123456", "1.2.3.4 - - 99", "1.2.3.4_80",
+            "http proxy.example.com:8080", "HTTP://Proxy.Example.COM:3128 fast", "socks5 [2001:db8::1]:1080",
+            "http [::ffff:1.2.3.4]:80", "http version 1.2.3 host:80", "http 1.2.3.4:80 example.com",
+            "socks example.com.", "http localhost:80", "https a..b.com:1", "user@mail.example.org:25 ftp",
+            "http 10.0.0.1.example.com:81", "http [abc] x.org:1", "http -a.b.c:1", "ftp _x.y.z 21",
+    };
+
+    private static final Pattern TYPE = Pattern.compile("https?|socks(?:4a?|5)?|ftp", Pattern.CASE_INSENSITIVE);
+    private static final Pattern IPV4 = Pattern.compile(
+            "((?:(?:(?:1\\d\\d|2[0-4]\\d|25[0-5])|[1-9]\\d|\\d)\\.){3}(?:(?:1\\d\\d|2[0-4]\\d|25[0-5])|[1-9]\\d|\\d))" +
+                    "(?:\\W*|[:])?(\\d{1,5})?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern IPV6_HOST = Pattern.compile("\\[[\\w:.%]*]");
+    private static final Pattern NAME_HOST = Pattern.compile("\\w[\\w.-]*");
+    private static final Pattern PORT = Pattern.compile("\\W*(\\d{1,5})?");
+
+    /**
+     * Reference scan result: type code, IPv4 address or host, port
+     */
+    private static String reference(String line) {
+        byte type = ProxyType.NONE;
+        Matcher matcher = TYPE.matcher(line);
+        if (matcher.find()) {
+            type = ProxyType.getCode(matcher.group().toLowerCase());
+        }
+        matcher = IPV4.matcher(line);
+        if (matcher.find()) {
+            return format(type, matcher.group(1), null, port(matcher.group(2)));
+        }
+        for (int i = 0; i < line.length(); i++) {
+            if (i > 0 && (isWord(line.charAt(i - 1)) || line.charAt(i - 1) == '.' || line.charAt(i - 1) == '-')) {
+                continue;
+            }
+            String host = null;
+            matcher = IPV6_HOST.matcher(line).region(i, line.length());
+            if (matcher.lookingAt()) {
+                if (matcher.group().chars().filter(c -> c == ':').count() >= 2) {
+                    host = matcher.group();
+                }
+            } else if ((matcher = NAME_HOST.matcher(line).region(i, line.length())).lookingAt()) {
+                String name = matcher.group();
+                if (name.endsWith(".")) {
+                    name = name.substring(0, name.length() - 1);
+                }
+                int lastLabel = name.lastIndexOf('.') + 1;
+                if (!matcher.group().contains("..") && lastLabel > 0 &&
+                        Character.isLetter(name.charAt(lastLabel)) && name.charAt(lastLabel) < 0x80) {
+                    host = name;
+                }
+            }
+            if (host != null) {
+                Matcher port = PORT.matcher(line).region(i + host.length(), line.length());
+                port.lookingAt();
+                return format(type, null, host, port(port.group(1)));
+            }
+        }
+        return format(type, null, null, 0);
+    }
+
+    private static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static int port(String digits) {
+        return (digits != null) ? Integer.parseInt(digits) : 0;
+    }
+
+    private static String format(byte type, String ip, String host, int port) {
+        return ProxyType.getName(type) + " " + ((ip != null) ? ip : "-") + " " + ((host != null) ? host : "-") +
+                " " + port;
+    }
+
+    private static String scanned(ServerScanner scanner) {
+        return format(scanner.getType(), scanner.hasAddress() ? ServerScanner.ipToString(scanner.getIp()) : null,
+                scanner.getHost(), scanner.getPort());
+    }
+
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        int parts = 1 + random.nextInt(6);
+        for (int i = 0; i < parts; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    line.append(WORDS[random.nextInt(WORDS.length)]);
+                    break;
+                case 1:
+                    line.append(random.nextInt(300)).append('.').append(random.nextInt(300)).append('.')
+                            .append(random.nextInt(300)).append('.').append(random.nextInt(300));
+                    break;
+                default:
+                    for (int j = random.nextInt(8); j >= 0; j--) {
+                        line.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    }
+            }
+            if (random.nextBoolean()) {
+                line.append(" :\t/@".charAt(random.nextInt(5)));
+            }
+        }
+        return line.toString();
+    }
+
+    static void run(CheckRunner runner) throws Exception {
+        runner.check("parser.reference", () -> {
+            ServerScanner scanner = new ServerScanner();
+            Random random = new Random(CheckRunner.SEED);
+            String[] listLines = ParserBenchmarks.generateLines(100_000, random);
+            int count = 0;
+            for (int i = 0; i < CORPUS.length + listLines.length + RANDOM_LINES; i++) {
+                String line = (i < CORPUS.length) ? CORPUS[i] : (i < CORPUS.length + listLines.length) ?
+                        listLines[i - CORPUS.length] : randomLine(random);
+                String expected = reference(line);
+                scanner.scan(line);
+                CheckRunner.verify(expected.equals(scanned(scanner)),
+                        "'" + line + "': expected " + expected + ", scanned " + scanned(scanner));
+                byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+                scanner.scan(bytes, 0, bytes.length);
+                CheckRunner.verify(expected.equals(scanned(scanner)),
+                        "'" + line + "' as bytes: expected " + expected + ", scanned " + scanned(scanner));
+                count++;
+            }
+            return count + " lines";
+        });
+    }
+}
@@ -0,0 +1,57 @@
+import util.ServerKey;
+import util.net.NioProxyTester;
+import util.net.ProxyFarm;
+
+import java.net.Proxy;
+import java.util.List;
+
+/**
+ * End-to-end tests per second against simulated loopback proxy farm
+ */
+class TesterBenchmarks {
+    private static final int TESTS = 2_000;
+    private static final int CONCURRENCY = 64;
+    private static final int MIXED_ENDPOINTS = 1_000;
+    private static final int MIXED_CONCURRENCY = 1_000;
+    private static final String URL = "http://example.com/";
+
+    private static long runTests(List<ProxyFarm.Endpoint> endpoints, int count, int concurrency, int timeout,
+                                 NioProxyTester nioTester) throws InterruptedException {
+        TestRunner runner = new TestRunner(new TestRunner.Listener() {
+        });
+        runner.setUrl(URL);
+        runner.setAttempts(1);
+        runner.setTimeout(timeout);
+        runner.setConcurrency(concurrency);
+        runner.setNioTester(nioTester);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            ProxyFarm.Endpoint endpoint = endpoints.get(i % endpoints.size());
+            keys[i] = ServerKey.of(endpoint.getProxyType(), endpoint.getAddress());
+        }
+        runner.submit(keys);
+        runner.join();
+        return count;
+    }
+
+    static void run(BenchmarkRunner runner) throws Exception {
+        if (!runner.isEnabled("tester.")) {
+            return;
+        }
+        try (ProxyFarm farm = new ProxyFarm(BenchmarkRunner.SEED);
+             ProxyFarm mixedFarm = new ProxyFarm(BenchmarkRunner.SEED);
+             NioProxyTester nioTester = new NioProxyTester()) {
+            List<ProxyFarm.Endpoint> ok = farm.addEndpoints(1, new ProxyFarm.Profile(
+                    Proxy.Type.HTTP, ProxyFarm.Behavior.OK, ProxyFarm.Latency.constant(0)));
+            runner.measure("tester.blocking", CONCURRENCY, () -> runTests(ok, TESTS, CONCURRENCY, 5_000, null));
+            runner.measure("tester.nio", CONCURRENCY, () -> runTests(ok, TESTS, CONCURRENCY, 5_000, nioTester));
+
+            // default failure mix with 1 s timeout, blackholes bound the iteration time
+            List<ProxyFarm.Endpoint> mixed = mixedFarm.addDefaultMix(MIXED_ENDPOINTS);
+            runner.measure("tester.mixed.blocking", MIXED_CONCURRENCY,
+                    () -> runTests(mixed, MIXED_ENDPOINTS, MIXED_CONCURRENCY, 1_000, null));
+            runner.measure("tester.mixed.nio", MIXED_CONCURRENCY,
+                    () -> runTests(mixed, MIXED_ENDPOINTS, MIXED_CONCURRENCY, 1_000, nioTester));
+        }
+    }
+}
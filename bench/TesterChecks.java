@@ -0,0 +1,164 @@
+import util.net.NioProxyTester;
+import util.net.ProxyFarm;
+import util.net.ProxyTester;
+import util.net.SocksClient;
+import util.net.Timings;
+
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.util.Collections;
+
+/**
+ * Checks of proxy test results against farm endpoints of known behavior
+ */
+class TesterChecks {
+    private static final String URL = "http://example.com/";
+    private static final int LATENCY = 20;
+    /**
+     * Every body byte comes within timeout, the whole farm body takes about 9 timeouts
+     */
+    private static final int SLOW_BODY_DELAY = 50;
+    private static final int SLOW_BODY_TIMEOUT = 200;
+    private static final int SOCKS_TIMEOUT = 5_000;
+    /**
+     * Resolved address of url host given to SOCKS4 tests, farm doesn't connect anywhere
+     */
+    private static final byte[] TARGET_ADDRESS = {93, (byte) 184, (byte) 216, 34};
+    /**
+     * Not resolved by SOCKS4 tests without address, reserved name fails in blocking engine DNS too
+     */
+    private static final String UNRESOLVED_URL = "http://unresolved.invalid/";
+    /**
+     * Host of five 63 byte labels, longer than SOCKS5 allows
+     */
+    private static final String LONG_NAME_URL = "http://" + String.join(".",
+            Collections.nCopies(5, new String(new char[63]).replace('\0', 'a'))) + "/";
+
+    /**
+     * Test of SOCKS endpoint on both engines, plain "socks" endpoint on the non-blocking one only,
+     * as the blocking one leaves it to JDK
+     * @param target - resolved url host passed to tester
+     * @param expected - "OK" or part of the expected error message
+     * @param expectedTarget - target which endpoint must receive, null if it is not checked
+     * @return results of engines
+     */
+    private static String socksTest(NioProxyTester nioTester, ProxyFarm.Endpoint endpoint, String user,
+                                    String password, String url, InetAddress target, String expected,
+                                    String expectedTarget) throws Exception {
+        StringBuilder res = new StringBuilder();
+        for (boolean nio : new boolean[]{true, false}) {
+            if (!nio && endpoint.getProfile().getSocksVersion() == null) {
+                continue;
+            }
+            String result;
+            try {
+                if (nio) {
+                    nioTester.setSocksCredentials(user, password);
+                    NioProxyTester.await(nioTester.test(endpoint.getAddress(), endpoint.getProxyType(), url, target,
+                            SOCKS_TIMEOUT));
+                } else {
+                    ProxyTester proxyTest = new ProxyTester(endpoint.getAddress(), endpoint.getProxyType());
+                    proxyTest.setTimeout(SOCKS_TIMEOUT);
+                    proxyTest.setSocksCredentials(user, password);
+                    proxyTest.setTargetAddress(target);
+                    proxyTest.syncTest(url);
+                }
+                result = "OK";
+            } catch (Exception e) {
+                result = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+            String engine = nio ? "nio" : "blocking";
+            CheckRunner.verify(result.contains(expected),
+                    engine + " " + endpoint.getProxyType() + ": expected " + expected + ", got " + result);
+            if (expectedTarget != null) {
+                CheckRunner.verify(expectedTarget.equals(endpoint.getLastTarget()), engine + " " +
+                        endpoint.getProxyType() + ": expected target " + expectedTarget + ", sent " +
+                        endpoint.getLastTarget());
+            }
+            res.append((res.length() > 0) ? ", " : "").append(engine).append(" ").append(result);
+        }
+        return endpoint.getProxyType() + " " + res;
+    }
+
+    private static ProxyFarm.Endpoint socksEndpoint(ProxyFarm farm, SocksClient.Version version, String user,
+                                                    String password, boolean split) throws Exception {
+        return farm.addEndpoints(1, new ProxyFarm.Profile(Proxy.Type.SOCKS, ProxyFarm.Behavior.OK,
+                ProxyFarm.Latency.constant(1)).setSocksVersion(version).setCredentials(user, password)
+                .setSplitReplies(split)).get(0);
+    }
+
+    static void run(CheckRunner runner) throws Exception {
+        if (!runner.isEnabled("tester.")) {
+            return;
+        }
+        try (ProxyFarm farm = new ProxyFarm(CheckRunner.SEED);
+             NioProxyTester nioTester = new NioProxyTester()) {
+            ProxyFarm.Endpoint ok = farm.addEndpoints(1, new ProxyFarm.Profile(
+                    Proxy.Type.HTTP, ProxyFarm.Behavior.OK, ProxyFarm.Latency.constant(LATENCY))).get(0);
+            runner.check("tester.nio.reusedPing", () -> {
+                NioProxyTester.Result first = nioTester.test("127.0.0.1", ok.getPort(), Proxy.Type.HTTP, URL, 5_000)
+                        .get();
+                NioProxyTester.Result reused = nioTester.test("127.0.0.1", ok.getPort(), Proxy.Type.HTTP, URL, 5_000)
+                        .get();
+                CheckRunner.verify(!first.getTimings().isReused() && reused.getTimings().isReused(),
+                        "second test doesn't reuse connection");
+                CheckRunner.verify(reused.getPing() >= LATENCY,
+                        "ping of reused connection " + reused.getPing() + " ms, latency " + LATENCY + " ms");
+                return "ping " + first.getPing() + " ms, reused " + reused.getPing() + " ms";
+            });
+
+            ProxyFarm.Endpoint slow = farm.addEndpoints(1, new ProxyFarm.Profile(
+                    Proxy.Type.HTTP, ProxyFarm.Behavior.SLOW_BODY, ProxyFarm.Latency.constant(LATENCY))
+                    .setBodyDelay(SLOW_BODY_DELAY)).get(0);
+            runner.check("tester.nio.slowBody", () -> {
+                long start = System.nanoTime();
+                NioProxyTester.Result result = nioTester.test("127.0.0.1", slow.getPort(), Proxy.Type.HTTP, URL,
+                        SLOW_BODY_TIMEOUT).get();
+                long elapsed = (System.nanoTime() - start) / 1_000_000;
+                CheckRunner.verify(result.getTimings().get(Timings.Phase.TOTAL) < 0,
+                        "trickling body is read to the end");
+                CheckRunner.verify(elapsed < 3 * SLOW_BODY_TIMEOUT,
+                        "test of trickling body took " + elapsed + " ms, timeout " + SLOW_BODY_TIMEOUT + " ms");
+                return "cut after " + elapsed + " ms";
+            });
+        }
+
+        // kept connections would skip handshakes
+        try (ProxyFarm farm = new ProxyFarm(CheckRunner.SEED);
+             NioProxyTester nioTester = new NioProxyTester()) {
+            nioTester.setKeepAlive(false);
+            InetAddress target = InetAddress.getByAddress("example.com", TARGET_ADDRESS);
+            for (boolean split : new boolean[]{false, true}) {
+                String suffix = split ? ".split" : "";
+                ProxyFarm.Endpoint socks5 = socksEndpoint(farm, SocksClient.Version.SOCKS5, null, null, split);
+                ProxyFarm.Endpoint socks5Auth = socksEndpoint(farm, SocksClient.Version.SOCKS5, "user", "secret",
+                        split);
+                ProxyFarm.Endpoint plainAuth = socksEndpoint(farm, null, "user", "secret", split);
+                ProxyFarm.Endpoint socks4 = socksEndpoint(farm, SocksClient.Version.SOCKS4, "user", null, split);
+                ProxyFarm.Endpoint socks4a = socksEndpoint(farm, SocksClient.Version.SOCKS4A, "user", null, split);
+
+                runner.check("tester.socks.socks5" + suffix, () -> socksTest(nioTester, socks5, null, null, URL,
+                        null, "OK", "example.com:80"));
+                runner.check("tester.socks.socks5.auth" + suffix, () -> socksTest(nioTester, socks5Auth, "user",
+                        "secret", URL, null, "OK", "example.com:80"));
+                runner.check("tester.socks.socks5.sequentialAuth" + suffix, () -> socksTest(nioTester, plainAuth,
+                        "user", "secret", URL, null, "OK", "example.com:80"));
+                runner.check("tester.socks.socks5.wrongPassword" + suffix, () -> socksTest(nioTester, socks5Auth,
+                        "user", "wrong", URL, null, "authentication failed", null));
+                runner.check("tester.socks.socks5.noAcceptableMethod" + suffix, () -> socksTest(nioTester,
+                        socks5Auth, null, null, URL, null, "No acceptable methods", null));
+                runner.check("tester.socks.socks4" + suffix, () -> socksTest(nioTester, socks4, "user", null, URL,
+                        target, "OK", "93.184.216.34:80"));
+                runner.check("tester.socks.socks4.unresolved" + suffix, () -> socksTest(nioTester, socks4, "user",
+                        null, UNRESOLVED_URL, null, "unresolved.invalid", null));
+                runner.check("tester.socks.socks4.wrongUser" + suffix, () -> socksTest(nioTester, socks4, "other",
+                        null, URL, target, "connect failed, code 91", null));
+                runner.check("tester.socks.socks4a" + suffix, () -> socksTest(nioTester, socks4a, "user", null, URL,
+                        null, "OK", "example.com:80"));
+            }
+            ProxyFarm.Endpoint socks5 = socksEndpoint(farm, SocksClient.Version.SOCKS5, null, null, false);
+            runner.check("tester.socks.socks5.longName", () -> socksTest(nioTester, socks5, null, null,
+                    LONG_NAME_URL, null, "limited to 255 bytes", null));
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import util.ServerKey;
+import util.ServerParser;
+import util.net.ConnectionGovernor;
+import util.net.NioProxyTester;
+import util.net.ProxyFarm;
+import util.net.ProxyType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch mode.
+ * Servers are read from file or stdin line by line and tested as they are read,
+ * results are written as soon as each test is complete.
+ * Only servers in flight are kept in memory, duplicates are not filtered.
+ */
+class ConsoleRunner {
+    private static final String USAGE = "Usage: java -jar jproxy.jar [options] <file | - | --simulate N>\n" +
+            "Test proxy servers listed in file, or in stdin when file is '-'.\n" +
+            "  -u, --url URL          tested url (default https://google.com)\n" +
+            "  -t, --timeout SEC      attempt timeout, seconds (default 20)\n" +
+            "  -a, --attempts N       attempts per server (default 3)\n" +
+            "  -b, --backoff MS       delay before retry of failed attempt, doubles\n" +
+            "                         with every next attempt (default 1000)\n" +
+            "  -A, --adaptive MIN_MS  cut attempts at timeout learned from passed tests,\n" +
+            "                         between MIN_MS and --timeout\n" +
+            "  -c, --concurrency N    tests in flight (default 64)\n" +
+            "  -C, --cache FILE       keep results in cache file, skip servers tested\n" +
+            "                         within cache TTL and report cached results\n" +
+            "  -T, --cache-ttl MIN    cache TTL, minutes (default 60)\n" +
+            "  -o, --output FILE      write results to file instead of stdout\n" +
+            "  -m, --monitor SEC      test servers again and again until stopped,\n" +
+            "                         passed ones every SEC seconds, failed and flaky\n" +
+            "                         ones more often\n" +
+            "  -r, --rate N           monitoring tests per second (default 10)\n" +
+            "  -n, --nio              use non-blocking test engine\n" +
+            "  -p, --prescan MS       probe TCP connect with MS timeout first,\n" +
+            "                         test reachable servers only\n" +
+            "  -P, --prescan-concurrency N\n" +
+            "                         probes in flight (default 1000)\n" +
+            "  -R, --connect-rate N   new connections per second limit\n" +
+            "  -H, --host-limit N     tests in flight per target host limit\n" +
+            "  -Z, --reset-close      close non-blocking engine sockets with reset,\n" +
+            "                         so they don't stay in TIME_WAIT\n" +
+            "  -S, --socks-auth USER:PASS\n" +
+            "                         SOCKS5 credentials and SOCKS4 user id\n" +
+            "  -M, --metrics PORT     serve Prometheus metrics on\n" +
+            "                         http://127.0.0.1:PORT/metrics, JMX is always on\n" +
+            "  -s, --simulate N       test N simulated loopback servers instead of input\n" +
+            "  -h, --help             show this help\n";
+
+    private String input;
+    private String output;
+    private String url = "https://google.com";
+    private int timeout = 20;
+    private int attempts = 3;
+    private int retryBackoff = 1000;
+    private int minTimeout = 0;
+    private int concurrency = 64;
+    private String cacheFile;
+    private int cacheTtl = 60;
+    private boolean nio = false;
+    private int prescanTimeout = 0;
+    private int prescanConcurrency = 1000;
+    private int simulate = 0;
+    private int monitorInterval = 0;
+    private double connectRate = 0;
+    private int hostLimit = 0;
+    private boolean resetClose = false;
+    private String socksUser;
+    private String socksPassword;
+    private int metricsPort = 0;
+    private double monitorRate = 10;
+
+    private final AtomicLong tested = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private RunStatistics statistics;
+
+    /**
+     * Run batch mode
+     * @param args - command line arguments
+     * @return process exit code
+     */
+    static int run(String[] args) {
+        ConsoleRunner runner = new ConsoleRunner();
+        try {
+            if (!runner.parseArgs(args)) {
+                System.out.print(USAGE);
+                return 0;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        }
+
+        try {
+            runner.test();
+            return 0;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * @return false if help is requested
+     */
+    private boolean parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-h":
+                case "--help":
+                    return false;
+                case "-u":
+                case "--url":
+                    url = value(args, ++i);
+                    break;
+                case "-t":
+                case "--timeout":
+                    timeout = intValue(args, ++i);
+                    break;
+                case "-a":
+                case "--attempts":
+                    attempts = intValue(args, ++i);
+                    break;
+                case "-b":
+                case "--backoff":
+                    retryBackoff = intValue(args, ++i);
+                    break;
+                case "-A":
+                case "--adaptive":
+                    minTimeout = intValue(args, ++i);
+                    break;
+                case "-c":
+                case "--concurrency":
+                    concurrency = intValue(args, ++i);
+                    break;
+                case "-C":
+                case "--cache":
+                    cacheFile = value(args, ++i);
+                    break;
+                case "-T":
+                case "--cache-ttl":
+                    cacheTtl = intValue(args, ++i);
+                    break;
+                case "-o":
+                case "--output":
+                    output = value(args, ++i);
+                    break;
+                case "-m":
+                case "--monitor":
+                    monitorInterval = intValue(args, ++i);
+                    break;
+                case "-r":
+                case "--rate":
+                    monitorRate = doubleValue(args, ++i);
+                    break;
+                case "-n":
+                case "--nio":
+                    nio = true;
+                    break;
+                case "-p":
+                case "--prescan":
+                    prescanTimeout = intValue(args, ++i);
+                    break;
+                case "-P":
+                case "--prescan-concurrency":
+                    prescanConcurrency = intValue(args, ++i);
+                    break;
+                case "-R":
+                case "--connect-rate":
+                    connectRate = doubleValue(args, ++i);
+                    break;
+                case "-H":
+                case "--host-limit":
+                    hostLimit = intValue(args, ++i);
+                    break;
+                case "-Z":
+                case "--reset-close":
+                    resetClose = true;
+                    break;
+                case "-S":
+                case "--socks-auth":
+                    String credentials = value(args, ++i);
+                    int colon = credentials.indexOf(':');
+                    socksUser = (colon >= 0) ? credentials.substring(0, colon) : credentials;
+                    socksPassword = (colon >= 0) ? credentials.substring(colon + 1) : "";
+                    break;
+                case "-M":
+                case "--metrics":
+                    metricsPort = intValue(args, ++i);
+                    break;
+                case "-s":
+                case "--simulate":
+                    simulate = intValue(args, ++i);
+                    break;
+                default:
+                    if (args[i].startsWith("-") && !args[i].equals("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    }
+                    if (input != null) {
+                        throw new IllegalArgumentException("Only one input is allowed");
+                    }
+                    input = args[i];
+            }
+        }
+        if (input == null && simulate == 0) {
+            throw new IllegalArgumentException("Input is not set");
+        }
+        return true;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Value is missing for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i) {
+        try {
+            int res = Integer.parseInt(value(args, i));
+            if (res < 1) {
+                throw new IllegalArgumentException("Value must be positive for " + args[i - 1]);
+            }
+            return res;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong number for " + args[i - 1]);
+        }
+    }
+
+    private static double doubleValue(String[] args, int i) {
+        try {
+            double res = Double.parseDouble(value(args, i));
+            if (!(res > 0) || Double.isInfinite(res)) {
+                throw new IllegalArgumentException("Value must be positive for " + args[i - 1]);
+            }
+            return res;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong number for " + args[i - 1]);
+        }
+    }
+
+    private void test() throws IOException, InterruptedException {
+        InputStream in;
+        ProxyFarm farm = null;
+        if (simulate > 0) {
+            farm = ProxyFarm.withDefaultMix(simulate);
+            StringBuilder lines = new StringBuilder();
+            for (ProxyFarm.Endpoint endpoint : farm.getEndpoints()) {
+                lines.append(endpoint.getProxyType()).append(" 127.0.0.1:").append(endpoint.getPort()).append('\n');
+            }
+            in = new ByteArrayInputStream(lines.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            in = input.equals("-") ? System.in : Files.newInputStream(Paths.get(input));
+        }
+        OutputStream out = (output == null) ? System.out : Files.newOutputStream(Paths.get(output));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+             NioProxyTester nioTester = nio ? new NioProxyTester() : null;
+             NioProxyTester prober = (prescanTimeout > 0) ? new NioProxyTester() : null;
+             ResultCache cache = (cacheFile != null) ? new ResultCache(Paths.get(cacheFile)) : null;
+             MetricsExporter metrics = new MetricsExporter()) {
+            // bounds servers in memory: read ahead at most one queued server per worker and probe
+            Semaphore inFlight = new Semaphore(2 * concurrency + ((prober != null) ? prescanConcurrency : 0));
+
+            TestRunner.Listener listener = new TestRunner.Listener() {
+                @Override
+                public void tested(long key, ServerStatus status) {
+                    tested.incrementAndGet();
+                    if (status.getStatusValue() == ServerStatus.Status.OK) {
+                        passed.incrementAndGet();
+                    }
+                    try {
+                        synchronized (writer) {
+                            writer.write(String.format("%s\t%10s:%d\t%10s\n",
+                                    ProxyType.getName(ServerKey.type(key)),
+                                    ServerKey.host(key),
+                                    ServerKey.port(key),
+                                    status));
+                            writer.flush();
+                        }
+                    } catch (IOException e) {
+                        System.err.println(e.getMessage());
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            };
+            Monitor monitor = (monitorInterval > 0) ? new Monitor(listener) : null;
+            TestRunner runner = (monitor != null) ? monitor.getRunner() : new TestRunner(listener);
+            runner.setUrl(url);
+            runner.setAttempts(attempts);
+            runner.setRetryBackoff(retryBackoff);
+            runner.setTimeout(timeout * 1000);
+            runner.setAdaptiveTimeout(minTimeout > 0);
+            runner.setMinTimeout(minTimeout);
+            runner.setConcurrency(concurrency);
+            runner.setNioTester(nioTester);
+            runner.setSocksCredentials(socksUser, socksPassword);
+            if (connectRate > 0 || hostLimit > 0) {
+                double rate = (connectRate > 0) ? connectRate : Double.POSITIVE_INFINITY;
+                runner.setGovernor(new ConnectionGovernor(rate, (int) Math.max(1, rate / 10),
+                        (hostLimit > 0) ? hostLimit : Integer.MAX_VALUE));
+            }
+            for (NioProxyTester tester : new NioProxyTester[]{nioTester, prober}) {
+                if (tester != null) {
+                    tester.setResetClose(resetClose);
+                    tester.setSocksCredentials(socksUser, socksPassword);
+                }
+            }
+            runner.setProber(prober);
+            runner.setPrescanTimeout(prescanTimeout);
+            runner.setPrescanConcurrency(prescanConcurrency);
+            runner.setCache(cache);
+            runner.setCacheTtl(cacheTtl * 60 * 1000L);
+            metrics.add((monitor != null) ? "monitor" : "test", runner);
+            if (metricsPort > 0) {
+                metrics.startEndpoint(metricsPort);
+            }
+
+            if (monitor != null) {
+                monitor(reader, monitor);
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long key = ServerParser.parseKey(line);
+                if (key >= 0) {
+                    inFlight.acquire();
+                    runner.submit(key);
+                }
+            }
+            runner.join();
+            statistics = runner.getStatistics();
+        } finally {
+            if (farm != null) {
+                farm.close();
+            }
+        }
+        System.err.println(String.format("Tested: %d, passed: %d", tested.get(), passed.get()));
+        if (statistics != null) {
+            System.err.print(statistics);
+        }
+    }
+
+    /**
+     * Monitor all servers of input, every result is written.
+     * Runs until the process is stopped
+     */
+    private void monitor(BufferedReader reader, Monitor monitor) throws IOException, InterruptedException {
+        long[] keys = new long[1024];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            long key = ServerParser.parseKey(line);
+            if (key >= 0) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                }
+                keys[count++] = key;
+            }
+        }
+        monitor.setConcurrency(concurrency);
+        monitor.setInterval(monitorInterval * 1000);
+        monitor.setRate(monitorRate);
+        monitor.start(Arrays.copyOf(keys, count));
+        while (true) {
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+}
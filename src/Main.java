@@ -1,5 +1,8 @@
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(ConsoleRunner.run(args));
+        }
         new MainForm();
     }
 }
@@ -1,16 +1,22 @@
 import javax.swing.*;
+import javax.swing.event.RowSorterEvent;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.io.*;
 import java.nio.file.Files;
-import java.util.ArrayList;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.DataFormatException;
+import java.util.concurrent.ExecutionException;
 
-import util.net.ProxyTester;
+import util.ServerKey;
+import util.ServerParser;
+import util.net.ConnectionGovernor;
+import util.net.NioProxyTester;
+import util.net.ProxyFarm;
 import util.net.ProxyType;
 import util.ActionListenerEx;
 
@@ -20,11 +26,8 @@ class CustomTableCellRenderer extends DefaultTableCellRenderer {
         ServersModel model = (ServersModel) table.getModel();
         Component component = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
 
-        Color color = model.getEntry(table.convertRowIndexToModel(row)).getServerStatus().getStatusColor();
-        if (isSelected) {
-            color = color.darker();
-        }
-        component.setBackground(color);
+        component.setBackground(
+                ServerStatus.statusToColor(model.getStatusValue(table.convertRowIndexToModel(row)), isSelected));
         return component;
     }
 }
@@ -42,13 +45,50 @@ public class MainForm {
     private JSpinner spinnerThreads;
     private JSpinner spinnerTimeout;
     private JMenuBar mainMenuBar;
-    private ArrayList<Thread> taskThreads = new ArrayList<>();
-
-    private SpinnerNumberModel spinnerThreadsModel = new SpinnerNumberModel(8, 1, 32, 1);
+    private JCheckBoxMenuItem nioEngineMenuItem;
+    private JCheckBoxMenuItem adaptiveTimeoutMenuItem;
+    private int minTimeout = 1000;
+    private JCheckBoxMenuItem prescanMenuItem;
+    private int prescanTimeout = 3000;
+    private int retryBackoff = 1000;
+    private JCheckBoxMenuItem resultCacheMenuItem;
+    private int cacheTtl = 60;
+    private ResultCache resultCache;
+    private JCheckBoxMenuItem monitorMenuItem;
+    private JCheckBoxMenuItem governorMenuItem;
+    private int connectRate = 200;
+    private int hostLimit = 256;
+    private ConnectionGovernor governor;
+    private JCheckBoxMenuItem socksCredentialsMenuItem;
+    private String socksUser = "";
+    private String socksPassword = "";
+    private final MetricsExporter metrics = new MetricsExporter();
+    private JCheckBoxMenuItem metricsMenuItem;
+    private JCheckBoxMenuItem okOnlyMenuItem;
+    private int metricsPort = 9464;
+    private int monitorInterval = 300;
+    private double monitorRate = 10;
+    private NioProxyTester nioTester;
+    private ProxyFarm proxyFarm;
+
+    private SpinnerNumberModel spinnerThreadsModel = new SpinnerNumberModel(64, 1, 10000, 1);
     private SpinnerNumberModel spinnerAttemptsModel = new SpinnerNumberModel(3, 1, 10, 1);
     private SpinnerNumberModel spinnerTimeoutModel = new SpinnerNumberModel(20, 1, 60, 1);
 
     private final ServersModel model = new ServersModel();
+    private final ServersRowSorter rowSorter = new ServersRowSorter(model);
+    private final TestRunner testRunner = new TestRunner(model);
+    private final Monitor monitor = new Monitor(new TestRunner.Listener() {
+        @Override
+        public boolean starting(long key) {
+            return model.contains(key);
+        }
+
+        @Override
+        public void tested(long key, ServerStatus status) {
+            model.tested(key, status);
+        }
+    });
 
     /**
      * Show error message gialog
@@ -77,27 +117,37 @@ public class MainForm {
     }
 
     /**
-     * Import file action
+     * Import file action, file is imported in background with progress dialog
      */
     private ActionListener actionFileImport = new ActionListenerEx(() -> {
         JFileChooser fc = new JFileChooser();
         if (fc.showOpenDialog(mainFrame) == JFileChooser.APPROVE_OPTION) {
             File file = fc.getSelectedFile();
-            try {
-                AtomicInteger count = new AtomicInteger();
-                Files.lines(file.toPath()).forEach((line) -> {
+            ServersImporter importer = new ServersImporter(model, file.toPath());
+            ProgressMonitor monitor = new ProgressMonitor(mainFrame,
+                    String.format("Importing '%s'", file.getName()), null, 0, 100);
+            monitor.setMillisToDecideToPopup(200);
+
+            importer.addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    monitor.setProgress((int) event.getNewValue());
+                    if (monitor.isCanceled()) {
+                        importer.cancel(false);
+                    }
+                } else if ("imported".equals(event.getPropertyName())) {
+                    monitor.close();
                     try {
-                        if (model.addEntry(ServersModel.parseEntry(line))) {
-                            count.getAndIncrement();
+                        if (!importer.isCancelled()) {
+                            importer.get();
                         }
-                    } catch (DataFormatException ignored) {
+                        showInfo(String.format("Servers imported: %d\nLines: %d, %d lines/sec",
+                                importer.getAdded(), importer.getLines(), importer.getLinesPerSecond()));
+                    } catch (InterruptedException | ExecutionException e) {
+                        showError((e.getCause() != null) ? e.getCause().getMessage() : e.getMessage());
                     }
-                });
-                showInfo(String.format("Servers imported: %d", count.get()));
-            } catch (IOException e) {
-                showError(e.getMessage());
-            }
-            model.fireTableDataChanged();
+                }
+            });
+            importer.execute();
         }
     });
 
@@ -114,12 +164,13 @@ public class MainForm {
                 }
             }
             try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
-                for (ServerModelItem item : model) {
+                for (int row = 0; row < model.getRowCount(); row++) {
+                    long key = model.getKey(row);
                     writer.write(String.format("%s\t%10s:%d\t%10s\n",
-                            item.getType(),
-                            item.getSocketAddress().getIp(),
-                            item.getSocketAddress().getPort(),
-                            item.getServerStatus()));
+                            ProxyType.getName(ServerKey.type(key)),
+                            ServerKey.host(key),
+                            ServerKey.port(key),
+                            model.getStatus(row)));
                 }
             } catch (IOException ex) {
                 showError(ex.getMessage());
@@ -128,92 +179,268 @@ public class MainForm {
     });
 
     /**
-     * Start test tasks action
+     * Shared non-blocking test engine, created on first use
+     * @return engine or null when it can't be created
      */
-    private ActionListener actionStartTest = new ActionListenerEx(() -> {
-        synchronized (model) {
-            for (ServerModelItem item : model) {
-                if (item.getServerStatus().getStatusValue() != ServerStatus.Status.TESTING) {
-                    item.getServerStatus().setStatusValue(ServerStatus.Status.QUEUED);
-                }
+    private synchronized NioProxyTester getNioTester() {
+        if (nioTester == null) {
+            try {
+                nioTester = new NioProxyTester(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            } catch (IOException e) {
+                return null;
             }
-            model.fireTableDataChanged();
         }
+        return nioTester;
+    }
 
-        Runnable task = () -> {
-            ServerModelItem item;
-            while (true) {
-                synchronized (model) {
-                    item = model.getEntry(ServerStatus.Status.QUEUED);
-                    if (item == null) break;
-                    item.getServerStatus().setStatusValue(ServerStatus.Status.TESTING);
+    /**
+     * Shared result cache in user home, created on first use and closed on exit
+     * @return cache or null when it can't be opened
+     */
+    private synchronized ResultCache getResultCache() {
+        if (resultCache == null) {
+            try {
+                resultCache = new ResultCache(Paths.get(System.getProperty("user.home"), ".jproxy", "results.cache"));
+            } catch (IOException e) {
+                showError(e.getMessage());
+                return null;
+            }
+            ResultCache cache = resultCache;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    cache.close();
+                } catch (IOException ignored) {
                 }
+            }));
+        }
+        return resultCache;
+    }
 
-                ProxyTester proxyTest = new ProxyTester(item.getSocketAddress(), item.getType());
-                proxyTest.setTimeout((int) spinnerTimeoutModel.getValue() * 1000);
-                for (int i = 1; i <= (int) spinnerAttemptsModel.getValue(); i++) {
-                    try {
-                        synchronized (model) {
-                            item.getServerStatus().setAttempt(i);
-                            item.getServerStatus().setStatusValue(ServerStatus.Status.TESTING);
-                            model.fireTableDataChanged();
-                        }
-                        proxyTest.syncTest(urlTextField.getText());
-                        item.getServerStatus().setOk(proxyTest.getPing());
-                        i = (int) spinnerAttemptsModel.getValue() + 1;
-                    } catch (ProxyTester.ProxyTestUrlException |
-                            ProxyTester.ProxyTestWrongSettingsException |
-                            ProxyTester.ProxyTestUnexpectedException e) {
-                        item.getServerStatus().setFail(e.getMessage());
-                        i = (int) spinnerAttemptsModel.getValue() + 1;
-                    } catch (ProxyTester.ProxyTestTimeoutException |
-                            ProxyTester.ProxyTestConnectException e) {
-                        item.getServerStatus().setFail(e.getMessage());
-                    }
-                    synchronized (model) {
-                        model.fireTableDataChanged();
-                    }
-                }
+    /**
+     * Apply test settings of form to runner, result cache is not included
+     */
+    private void applySettings(TestRunner runner) {
+        runner.setUrl(urlTextField.getText());
+        runner.setAttempts((int) spinnerAttemptsModel.getValue());
+        runner.setRetryBackoff(retryBackoff);
+        runner.setTimeout((int) spinnerTimeoutModel.getValue() * 1000);
+        runner.setConcurrency((int) spinnerThreadsModel.getValue());
+        runner.setNioTester(nioEngineMenuItem.isSelected() ? getNioTester() : null);
+        runner.setAdaptiveTimeout(adaptiveTimeoutMenuItem.isSelected());
+        runner.setMinTimeout(minTimeout);
+        runner.setProber(prescanMenuItem.isSelected() ? getNioTester() : null);
+        runner.setPrescanTimeout(prescanTimeout);
+        runner.setGovernor(governorMenuItem.isSelected() ? governor : null);
+        String user = socksCredentialsMenuItem.isSelected() ? socksUser : null;
+        String password = socksCredentialsMenuItem.isSelected() ? socksPassword : null;
+        runner.setSocksCredentials(user, password);
+        if (nioEngineMenuItem.isSelected() || prescanMenuItem.isSelected()) {
+            NioProxyTester nioTester = getNioTester();
+            if (nioTester != null) {
+                nioTester.setResetClose(governorMenuItem.isSelected());
+                nioTester.setSocksCredentials(user, password);
             }
-        };
-
-        for (int i = taskThreads.size(); i < (int) spinnerThreadsModel.getValue(); i++) {
-            taskThreads.add(new Thread(task));
         }
+    }
 
-        for (int i = 0; i < (int) spinnerThreadsModel.getValue(); i++) {
-            if (taskThreads.get(i).isAlive()) {
-                continue;
-            }
-            try {
-                taskThreads.get(i).start();
-            } catch (IllegalThreadStateException ignored) {
-                taskThreads.set(i, new Thread(task));
-                taskThreads.get(i).start();
-            }
+    /**
+     * Start test tasks action
+     */
+    private ActionListener actionStartTest = new ActionListenerEx(() -> {
+        applySettings(testRunner);
+        testRunner.setCache(resultCacheMenuItem.isSelected() ? getResultCache() : null);
+        testRunner.setCacheTtl(cacheTtl * 60 * 1000L);
+        if (!testRunner.isRunning()) {
+            testRunner.getStatistics().reset();
         }
+        testRunner.submit(model.queueUntested());
     });
 
     /**
      * Abort test tasks action
      */
     private ActionListener actionAbortTest = new ActionListenerEx(() -> {
-        synchronized (model) {
-            for (ServerModelItem item : model) {
-                ServerStatus serverStatus = item.getServerStatus();
-                if (serverStatus.getStatusValue() == ServerStatus.Status.QUEUED) {
-                    item.getServerStatus().setStatusValue(ServerStatus.Status.CANCELLED);
-                }
-            }
+        testRunner.abort();
+    });
+
+    /**
+     * Show phase latency percentiles of the last test run action
+     */
+    private ActionListener actionShowStatistics = new ActionListenerEx(() -> {
+        JTextArea text = new JTextArea(testRunner.getStatistics().toString());
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, text.getFont().getSize()));
+        text.setEditable(false);
+        JOptionPane.showMessageDialog(mainFrame, text, "Run statistics", JOptionPane.INFORMATION_MESSAGE);
+    });
+
+    /**
+     * Toggle adaptive timeout action, asks for its lower bound when it is turned on
+     */
+    private ActionListener actionAdaptiveTimeout = new ActionListenerEx(() -> {
+        if (!adaptiveTimeoutMenuItem.isSelected()) {
+            return;
+        }
+        String value = JOptionPane.showInputDialog(mainFrame,
+                "Adaptive timeout is learned from passed tests, up to the set timeout.\nMinimum timeout, ms:",
+                String.valueOf(minTimeout));
+        try {
+            minTimeout = Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NullPointerException | NumberFormatException e) {
+            adaptiveTimeoutMenuItem.setSelected(false);
+        }
+    });
+
+    /**
+     * Toggle TCP pre-scan action, asks for probe timeout when it is turned on
+     */
+    private ActionListener actionPrescan = new ActionListenerEx(() -> {
+        if (!prescanMenuItem.isSelected()) {
+            return;
+        }
+        String value = JOptionPane.showInputDialog(mainFrame,
+                "Servers which don't accept TCP connect are failed before the test.\nConnect timeout, ms:",
+                String.valueOf(prescanTimeout));
+        try {
+            prescanTimeout = Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NullPointerException | NumberFormatException e) {
+            prescanMenuItem.setSelected(false);
+        }
+    });
+
+    /**
+     * Toggle monitoring action, asks for interval and rate when it is turned on.
+     * All servers of table, and servers added or edited meanwhile, are monitored until it is turned off
+     */
+    private ActionListener actionMonitor = new ActionListenerEx(() -> {
+        if (!monitorMenuItem.isSelected()) {
+            monitor.stop();
+            return;
+        }
+        try {
+            String value = JOptionPane.showInputDialog(mainFrame,
+                    "Servers are tested again and again, failed and flaky ones more often.\n" +
+                            "Interval between tests of passed server, sec:",
+                    String.valueOf(monitorInterval));
+            monitorInterval = Math.max(1, Integer.parseInt(value.trim()));
+            value = JOptionPane.showInputDialog(mainFrame, "Tests per second:", String.valueOf(monitorRate));
+            monitorRate = Math.max(0.1, Double.parseDouble(value.trim()));
+        } catch (NullPointerException | NumberFormatException e) {
+            monitorMenuItem.setSelected(false);
+            return;
+        }
+        applySettings(monitor.getRunner());
+        monitor.setConcurrency((int) spinnerThreadsModel.getValue());
+        monitor.setInterval(monitorInterval * 1000);
+        monitor.setRate(monitorRate);
+        monitor.start(model.getKeys());
+    });
+
+    /**
+     * Toggle metrics endpoint action, asks for its port when it is turned on
+     */
+    private ActionListener actionMetrics = new ActionListenerEx(() -> {
+        if (!metricsMenuItem.isSelected()) {
+            metrics.stopEndpoint();
+            return;
+        }
+        String value = JOptionPane.showInputDialog(mainFrame,
+                "Prometheus metrics are served on http://127.0.0.1:PORT/metrics, JMX is always on.\nPort:",
+                String.valueOf(metricsPort));
+        try {
+            metricsPort = Integer.parseInt(value.trim());
+            metrics.startEndpoint(metricsPort);
+        } catch (NullPointerException | NumberFormatException e) {
+            metricsMenuItem.setSelected(false);
+        } catch (IOException | IllegalArgumentException e) {
+            metricsMenuItem.setSelected(false);
+            showError(e.getMessage());
+        }
+    });
+
+    /**
+     * Toggle connection governor action, asks for its limits when it is turned on
+     */
+    private ActionListener actionGovernor = new ActionListenerEx(() -> {
+        if (!governorMenuItem.isSelected()) {
+            return;
+        }
+        try {
+            String value = JOptionPane.showInputDialog(mainFrame,
+                    "Connections are limited to keep local ports and target host from overload,\n" +
+                            "sockets are closed with reset to leave no TIME_WAIT.\nNew connections per second:",
+                    String.valueOf(connectRate));
+            connectRate = Math.max(1, Integer.parseInt(value.trim()));
+            value = JOptionPane.showInputDialog(mainFrame, "Tests in flight per target host:", String.valueOf(hostLimit));
+            hostLimit = Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NullPointerException | NumberFormatException e) {
+            governorMenuItem.setSelected(false);
+            return;
+        }
+        governor = new ConnectionGovernor(connectRate, Math.max(1, connectRate / 10), hostLimit);
+    });
+
+    /**
+     * Toggle SOCKS credentials action, asks for them when it is turned on
+     */
+    private ActionListener actionSocksCredentials = new ActionListenerEx(() -> {
+        if (!socksCredentialsMenuItem.isSelected()) {
+            return;
+        }
+        String value = JOptionPane.showInputDialog(mainFrame,
+                "Credentials are sent to socks4, socks4a and socks5 servers, SOCKS4 gets user name only.\n" +
+                        "User:password:",
+                socksUser);
+        if (value == null || value.isEmpty()) {
+            socksCredentialsMenuItem.setSelected(false);
+            return;
+        }
+        int colon = value.indexOf(':');
+        socksUser = (colon >= 0) ? value.substring(0, colon) : value;
+        socksPassword = (colon >= 0) ? value.substring(colon + 1) : "";
+    });
+
+    /**
+     * Toggle result cache action, asks for cache TTL when it is turned on
+     */
+    private ActionListener actionResultCache = new ActionListenerEx(() -> {
+        if (!resultCacheMenuItem.isSelected()) {
+            return;
+        }
+        String value = JOptionPane.showInputDialog(mainFrame,
+                "Servers tested within cache TTL get cached result without test.\nCache TTL, minutes:",
+                String.valueOf(cacheTtl));
+        try {
+            cacheTtl = Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NullPointerException | NumberFormatException e) {
+            resultCacheMenuItem.setSelected(false);
+        }
+    });
+
+    /**
+     * Set retry backoff action
+     */
+    private ActionListener actionRetryBackoff = new ActionListenerEx(() -> {
+        String value = JOptionPane.showInputDialog(mainFrame,
+                "Failed attempt is retried after backoff, it doubles with every next attempt.\nBackoff, ms:",
+                String.valueOf(retryBackoff));
+        try {
+            retryBackoff = Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NullPointerException | NumberFormatException ignored) {
         }
-        model.fireTableDataChanged();
     });
 
     /**
      * Add new server entry in model action
      */
     private ActionListener actionAddServer = new ActionListenerEx(() -> {
-        model.addEntry(new ProxyType("http"), "0.0.0.0", 8080, new ServerStatus());
+        model.addEntry(ServerKey.of(ProxyType.HTTP, 0, 8080));
+    });
+
+    /**
+     * Show only passed servers in table action
+     */
+    private ActionListener actionOkOnly = new ActionListenerEx(() -> {
+        rowSorter.setOkOnly(okOnlyMenuItem.isSelected());
     });
 
     /**
@@ -248,7 +475,8 @@ public class MainForm {
     private ActionListener actionParseServers = new ActionListenerEx(() -> {
         TextDialog dialog = new TextDialog(mainFrame, (txt) -> {
             Scanner scanner = new Scanner(txt);
-            int serversAddedCount = 0;
+            long[] keys = new long[16];
+            int keysCount = 0;
             int linesCount = 0;
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
@@ -256,20 +484,47 @@ public class MainForm {
                     continue;
                 }
                 linesCount++;
-                try {
-                    if (model.addEntry(ServersModel.parseEntry(line))) {
-                        serversAddedCount++;
+                long key = ServerParser.parseKey(line);
+                if (key >= 0) {
+                    if (keysCount == keys.length) {
+                        keys = Arrays.copyOf(keys, keysCount * 2);
                     }
-                } catch (DataFormatException ignored) {
+                    keys[keysCount++] = key;
                 }
             }
-            model.fireTableDataChanged();
+            int serversAddedCount = model.addEntries(keys, keysCount);
             showInfo(String.format("Parsed lines: %d\nServers added: %d", linesCount, serversAddedCount));
         });
         dialog.setTitle("Parse servers");
         dialog.setVisible(true);
     });
 
+    /**
+     * Add simulated loopback servers action, for offline load tests
+     */
+    private ActionListener actionAddSimulatedServers = new ActionListenerEx(() -> {
+        String value = JOptionPane.showInputDialog(mainFrame, "Simulated servers count:", "1000");
+        if (value == null) {
+            return;
+        }
+        try {
+            int count = Integer.parseInt(value.trim());
+            if (proxyFarm == null) {
+                proxyFarm = new ProxyFarm();
+            }
+            List<ProxyFarm.Endpoint> endpoints = proxyFarm.addDefaultMix(count);
+            long[] keys = new long[endpoints.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = ServerKey.of(endpoints.get(i).getProxyType(), endpoints.get(i).getAddress());
+            }
+            showInfo(String.format("Simulated servers added: %d", model.addEntries(keys, keys.length)));
+        } catch (NumberFormatException e) {
+            showError("Wrong servers count");
+        } catch (IOException e) {
+            showError(e.getMessage());
+        }
+    });
+
     /**
      * Exit programm action
      */
@@ -281,6 +536,8 @@ public class MainForm {
         mainFrame = new JFrame("jProxy");
         mainFrame.setContentPane(panelMain);
         mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        metrics.add("test", testRunner);
+        metrics.add("monitor", monitor.getRunner());
 
         mainMenuBar = new JMenuBar();
         JMenu menu;
@@ -313,6 +570,49 @@ public class MainForm {
         menuItem.addActionListener(actionAbortTest);
         menu.add(menuItem);
 
+        menuItem = new JMenuItem("Run statistics");
+        menuItem.addActionListener(actionShowStatistics);
+        menu.add(menuItem);
+
+        okOnlyMenuItem = new JCheckBoxMenuItem("Show OK only");
+        okOnlyMenuItem.addActionListener(actionOkOnly);
+        menu.add(okOnlyMenuItem);
+
+        nioEngineMenuItem = new JCheckBoxMenuItem("Non-blocking engine");
+        menu.add(nioEngineMenuItem);
+
+        adaptiveTimeoutMenuItem = new JCheckBoxMenuItem("Adaptive timeout");
+        adaptiveTimeoutMenuItem.addActionListener(actionAdaptiveTimeout);
+        menu.add(adaptiveTimeoutMenuItem);
+
+        prescanMenuItem = new JCheckBoxMenuItem("TCP pre-scan");
+        prescanMenuItem.addActionListener(actionPrescan);
+        menu.add(prescanMenuItem);
+
+        metricsMenuItem = new JCheckBoxMenuItem("Metrics endpoint");
+        metricsMenuItem.addActionListener(actionMetrics);
+        menu.add(metricsMenuItem);
+
+        governorMenuItem = new JCheckBoxMenuItem("Connection governor");
+        governorMenuItem.addActionListener(actionGovernor);
+        menu.add(governorMenuItem);
+
+        socksCredentialsMenuItem = new JCheckBoxMenuItem("SOCKS credentials");
+        socksCredentialsMenuItem.addActionListener(actionSocksCredentials);
+        menu.add(socksCredentialsMenuItem);
+
+        monitorMenuItem = new JCheckBoxMenuItem("Monitoring");
+        monitorMenuItem.addActionListener(actionMonitor);
+        menu.add(monitorMenuItem);
+
+        resultCacheMenuItem = new JCheckBoxMenuItem("Result cache");
+        resultCacheMenuItem.addActionListener(actionResultCache);
+        menu.add(resultCacheMenuItem);
+
+        menuItem = new JMenuItem("Retry backoff");
+        menuItem.addActionListener(actionRetryBackoff);
+        menu.add(menuItem);
+
         menuItem = new JMenuItem("Add server");
         menuItem.addActionListener(actionAddServer);
         menu.add(menuItem);
@@ -320,6 +620,10 @@ public class MainForm {
         menuItem = new JMenuItem("Remove server");
         menuItem.addActionListener(actionRemoveServer);
         menu.add(menuItem);
+
+        menuItem = new JMenuItem("Add simulated servers");
+        menuItem.addActionListener(actionAddSimulatedServers);
+        menu.add(menuItem);
         mainMenuBar.add(menu);
 
         menu = new JMenu("Help");
@@ -345,11 +649,26 @@ public class MainForm {
         serversTable.getColumnModel().getColumn(2).setMaxWidth(60);
         serversTable.getColumnModel().getColumn(2).setPreferredWidth(60);
 
-        serversTable.setAutoCreateRowSorter(true);
-        TableRowSorter tableRowSorter = new TableRowSorter(model);
-        tableRowSorter.setComparator(3, new ServerStatus.Comparator());
-        tableRowSorter.setComparator(2, new ServerModelItem.PortComparator());
-        serversTable.setRowSorter(tableRowSorter);
+        serversTable.setRowSorter(rowSorter);
+        // table doesn't repaint rows moved by status updates, nor resize for rows filtered out
+        rowSorter.addRowSorterListener(e -> {
+            if (e.getType() == RowSorterEvent.Type.SORTED) {
+                serversTable.revalidate();
+                serversTable.repaint();
+            }
+        });
+        // servers added or edited while monitoring runs are monitored too, old key of edited one is dropped by monitor
+        model.addTableModelListener(e -> {
+            boolean edited = e.getType() == TableModelEvent.UPDATE && e.getColumn() != TableModelEvent.ALL_COLUMNS;
+            if (!monitor.isRunning() || (e.getType() != TableModelEvent.INSERT && !edited)) {
+                return;
+            }
+            long[] keys = new long[e.getLastRow() - e.getFirstRow() + 1];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = model.getKey(e.getFirstRow() + i);
+            }
+            monitor.start(keys);
+        });
 
         spinnerAttempts.setModel(spinnerAttemptsModel);
         spinnerThreads.setModel(spinnerThreadsModel);
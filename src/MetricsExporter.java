@@ -0,0 +1,284 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import util.Histogram;
+import util.net.Timings;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live metrics of test runners, the same for GUI and batch mode:
+ * MXBean "jproxy:type=TestRunner,name=NAME" per runner, and Prometheus text format endpoint
+ * http://127.0.0.1:PORT/metrics when it is started.
+ * Values are read from runner counters on request, only tests per second rate is sampled every second.
+ */
+class MetricsExporter implements Closeable {
+    private static final String DOMAIN = "jproxy";
+    /**
+     * Weight of the last second in tests per second rate
+     */
+    private static final double RATE_ALPHA = 0.2;
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    /**
+     * Runner metrics in JMX
+     */
+    public interface RunnerMetricsMXBean {
+        long getTested();
+
+        long getPassed();
+
+        long getFailed();
+
+        long getInFlight();
+
+        long getQueued();
+
+        long getCacheHits();
+
+        double getTestsPerSecond();
+
+        /**
+         * @return failed attempts by exception class
+         */
+        Map<String, Long> getErrors();
+
+        /**
+         * @return latency percentiles of passed tests, ms, by "phase pNN", -1 when phase is not measured yet
+         */
+        Map<String, Integer> getLatency();
+    }
+
+    private static class RunnerMetrics implements RunnerMetricsMXBean {
+        private final TestRunner runner;
+        private volatile double testsPerSecond = 0;
+        private long lastTested = 0;
+
+        RunnerMetrics(TestRunner runner) {
+            this.runner = runner;
+        }
+
+        void sample() {
+            long tested = getTested();
+            // counters are reset with statistics, a new run starts from zero
+            long delta = Math.max(0, tested - lastTested);
+            lastTested = tested;
+            testsPerSecond += RATE_ALPHA * (delta - testsPerSecond);
+        }
+
+        @Override
+        public long getTested() {
+            return getPassed() + getFailed();
+        }
+
+        @Override
+        public long getPassed() {
+            return runner.getStatistics().getPassed();
+        }
+
+        @Override
+        public long getFailed() {
+            return runner.getStatistics().getFailed();
+        }
+
+        @Override
+        public long getInFlight() {
+            return runner.getInFlight();
+        }
+
+        @Override
+        public long getQueued() {
+            return runner.getQueued();
+        }
+
+        @Override
+        public long getCacheHits() {
+            return runner.getStatistics().getCacheHits();
+        }
+
+        @Override
+        public double getTestsPerSecond() {
+            return testsPerSecond;
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            return runner.getStatistics().getErrors();
+        }
+
+        @Override
+        public Map<String, Integer> getLatency() {
+            Map<String, Integer> res = new TreeMap<>();
+            for (Timings.Phase phase : Timings.Phase.values()) {
+                Histogram histogram = runner.getStatistics().getHistogram(phase);
+                for (double quantile : QUANTILES) {
+                    res.put(phaseName(phase) + " p" + (int) (quantile * 100), histogram.getPercentile(quantile * 100));
+                }
+            }
+            return res;
+        }
+    }
+
+    private final Map<String, RunnerMetrics> runners = new LinkedHashMap<>();
+    private final ScheduledExecutorService sampler;
+    private HttpServer server;
+
+    MetricsExporter() {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Metrics sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Publish runner metrics in JMX and endpoint
+     * @param name - runner name, label of its metrics
+     */
+    synchronized void add(String name, TestRunner runner) {
+        RunnerMetrics metrics = new RunnerMetrics(runner);
+        runners.put(name, metrics);
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN, objectNameProperties(name));
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+            mbeanServer.registerMBean(metrics, objectName);
+        } catch (JMException ignored) {
+            // endpoint still has the runner
+        }
+    }
+
+    private static Hashtable<String, String> objectNameProperties(String name) {
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("type", "TestRunner");
+        properties.put("name", name);
+        return properties;
+    }
+
+    /**
+     * Start Prometheus endpoint on loopback interface, endpoint started before is stopped
+     * @param port - endpoint port
+     */
+    synchronized void startEndpoint(int port) throws IOException {
+        stopEndpoint();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    synchronized void stopEndpoint() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private synchronized void sample() {
+        for (RunnerMetrics metrics : runners.values()) {
+            metrics.sample();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = format().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return metrics of all runners in Prometheus text format
+     */
+    synchronized String format() {
+        StringBuilder res = new StringBuilder();
+        header(res, "jproxy_tests_total", "counter", "Complete tests by result");
+        runners.forEach((name, metrics) -> {
+            sample(res, "jproxy_tests_total", name, "result=\"ok\"", metrics.getPassed());
+            sample(res, "jproxy_tests_total", name, "result=\"fail\"", metrics.getFailed());
+        });
+        header(res, "jproxy_attempt_errors_total", "counter", "Failed attempts by exception class");
+        runners.forEach((name, metrics) -> metrics.getErrors().forEach((exception, count) ->
+                sample(res, "jproxy_attempt_errors_total", name, "exception=\"" + exception + "\"", count)));
+        header(res, "jproxy_cache_hits_total", "counter", "Servers reported with cached result");
+        runners.forEach((name, metrics) -> sample(res, "jproxy_cache_hits_total", name, null, metrics.getCacheHits()));
+        header(res, "jproxy_in_flight", "gauge", "Attempts in progress");
+        runners.forEach((name, metrics) -> sample(res, "jproxy_in_flight", name, null, metrics.getInFlight()));
+        header(res, "jproxy_queued", "gauge", "Servers waiting for pre-scan, host lookup, test or retry");
+        runners.forEach((name, metrics) -> sample(res, "jproxy_queued", name, null, metrics.getQueued()));
+        header(res, "jproxy_tests_per_second", "gauge", "Complete tests per second, moving average");
+        runners.forEach((name, metrics) -> sample(res, "jproxy_tests_per_second", name, null,
+                metrics.getTestsPerSecond()));
+        header(res, "jproxy_latency_ms", "gauge", "Latency percentiles of passed tests by phase, ms from test start");
+        runners.forEach((name, metrics) -> {
+            for (Timings.Phase phase : Timings.Phase.values()) {
+                Histogram histogram = metrics.runner.getStatistics().getHistogram(phase);
+                for (double quantile : QUANTILES) {
+                    int value = histogram.getPercentile(quantile * 100);
+                    if (value >= 0) {
+                        sample(res, "jproxy_latency_ms", name,
+                                "phase=\"" + phaseName(phase) + "\",quantile=\"" + quantile + "\"", value);
+                    }
+                }
+            }
+        });
+        header(res, "jproxy_latency_count", "counter", "Passed tests with measured phase");
+        runners.forEach((name, metrics) -> {
+            for (Timings.Phase phase : Timings.Phase.values()) {
+                sample(res, "jproxy_latency_count", name, "phase=\"" + phaseName(phase) + "\"",
+                        metrics.runner.getStatistics().getHistogram(phase).getCount());
+            }
+        });
+        return res.toString();
+    }
+
+    private static String phaseName(Timings.Phase phase) {
+        return phase.name().toLowerCase();
+    }
+
+    private static void header(StringBuilder res, String metric, String type, String help) {
+        res.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        res.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder res, String metric, String runner, String labels, Number value) {
+        res.append(metric).append("{runner=\"").append(runner).append('"');
+        if (labels != null) {
+            res.append(',').append(labels);
+        }
+        res.append("} ").append(value).append('\n');
+    }
+
+    @Override
+    public synchronized void close() {
+        stopEndpoint();
+        sampler.shutdown();
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (String name : runners.keySet()) {
+            try {
+                mbeanServer.unregisterMBean(new ObjectName(DOMAIN, objectNameProperties(name)));
+            } catch (JMException ignored) {
+            }
+        }
+        runners.clear();
+    }
+}
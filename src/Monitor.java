@@ -0,0 +1,215 @@
+import util.DueQueue;
+import util.LongIntHashMap;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuous monitoring: every server is tested again and again by its own test runner.
+ * Servers wait in queue by next due time, pacer submits due servers at steady tests per second rate,
+ * so the stalest servers are tested first and tests don't come in bursts.
+ * Next test of passed server is due after the interval, failed server is tested twice as often
+ * and flaky server, which changed status or passed not on the first attempt, four times as often.
+ * Listener gets only complete results, so the last result is shown until the next one is received.
+ */
+class Monitor {
+    /**
+     * Pacer tick, ms
+     */
+    private static final int TICK = 100;
+    /**
+     * Due times are spread by this fraction of interval, so servers started together drift apart
+     */
+    private static final double JITTER = 0.1;
+
+    private static final int NO_RESULT = ServerStatus.Status.NEW.ordinal();
+
+    private final TestRunner.Listener listener;
+    private final TestRunner runner;
+    private final DueQueue queue = new DueQueue();
+    /**
+     * Monitored servers to their last status code
+     */
+    private final LongIntHashMap monitored = new LongIntHashMap();
+    private ScheduledExecutorService pacer;
+    private long lastTick;
+    private double tokens = 0;
+    private int inFlight = 0;
+
+    private volatile int interval = 5 * 60 * 1000;
+    private volatile double rate = 10;
+    private volatile int maxInFlight = 64;
+
+    /**
+     * @param listener - receives tested servers, starting() tells if server is still monitored
+     */
+    Monitor(TestRunner.Listener listener) {
+        this.listener = listener;
+        this.runner = new TestRunner(new TestRunner.Listener() {
+            @Override
+            public boolean starting(long key) {
+                if (!Monitor.this.listener.starting(key)) {
+                    dropped(key);
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void tested(long key, ServerStatus status) {
+                Monitor.this.tested(key, status);
+            }
+
+            @Override
+            public void cancelled(long key) {
+                dropped(key);
+            }
+        });
+    }
+
+    /**
+     * @return runner of monitoring tests, for test settings
+     */
+    TestRunner getRunner() {
+        return runner;
+    }
+
+    /**
+     * Add servers to monitoring and start it, servers are due now.
+     * Servers which are monitored already are skipped
+     */
+    synchronized void start(long... keys) {
+        long now = now();
+        for (long key : keys) {
+            if (monitored.putIfAbsent(key, NO_RESULT)) {
+                queue.add(key, now);
+            }
+        }
+        if (pacer == null) {
+            pacer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Monitor pacer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            lastTick = now;
+            tokens = 0;
+            pacer.scheduleAtFixedRate(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop monitoring, tests in flight are aborted
+     */
+    void stop() {
+        synchronized (this) {
+            if (pacer != null) {
+                pacer.shutdown();
+                pacer = null;
+            }
+            queue.clear();
+            monitored.clear();
+            inFlight = 0;
+        }
+        runner.abort();
+    }
+
+    synchronized boolean isRunning() {
+        return pacer != null;
+    }
+
+    /**
+     * @return number of monitored servers
+     */
+    synchronized int size() {
+        return monitored.size();
+    }
+
+    /**
+     * Submit due servers as rate allows, unused rate is not saved for more than one tick
+     */
+    private void tick() {
+        long[] keys;
+        int count = 0;
+        synchronized (this) {
+            long now = now();
+            double rate = this.rate;
+            tokens = Math.min(tokens + rate * (now - lastTick) / 1000, Math.max(1, rate * TICK / 1000));
+            lastTick = now;
+            keys = new long[(int) tokens];
+            while (count < keys.length && inFlight < maxInFlight && queue.peekDue() <= now) {
+                keys[count++] = queue.poll();
+                inFlight++;
+            }
+            tokens -= count;
+        }
+        for (int i = 0; i < count; i++) {
+            runner.submit(keys[i]);
+        }
+    }
+
+    /**
+     * Schedule next test of server by its result, cancelled server is dropped
+     */
+    private void tested(long key, ServerStatus status) {
+        if (status.getStatusValue() == ServerStatus.Status.CANCELLED) {
+            dropped(key);
+            return;
+        }
+        synchronized (this) {
+            int last = monitored.get(key);
+            if (last >= 0) {
+                inFlight--;
+                int code = status.getStatusValue().ordinal();
+                double next = interval;
+                if (status.getStatusValue() != ServerStatus.Status.OK) {
+                    next /= 2;
+                }
+                // every dead server fails all its attempts, only a pass after retry makes it flaky
+                if ((last != NO_RESULT && last != code) ||
+                        (status.getStatusValue() == ServerStatus.Status.OK && status.getAttempt() > 1)) {
+                    next /= 4;
+                }
+                next *= 1 + JITTER * (2 * Math.random() - 1);
+                monitored.replace(key, code);
+                queue.add(key, now() + (long) next);
+            }
+        }
+        listener.tested(key, status);
+    }
+
+    /**
+     * Server is not monitored anymore, it is removed from listener or run was aborted
+     */
+    private synchronized void dropped(long key) {
+        if (monitored.remove(key) >= 0) {
+            inFlight--;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * @param interval - time between tests of passed server, ms
+     */
+    void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * @param rate - tests per second
+     */
+    void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @param maxInFlight - tests in flight limit, also the runner concurrency
+     */
+    void setConcurrency(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        runner.setConcurrency(maxInFlight);
+    }
+}
@@ -0,0 +1,307 @@
+import util.LongIntHashMap;
+import util.ServerKey;
+import util.net.ProxyType;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Persistent cache of test results by server key (see {@link ServerKey}) in append-only log file.
+ * Every result is appended as a record, the latest record of a key wins when log is loaded.
+ * Log is compacted to one record per key in background when it holds twice more records than keys,
+ * results put during compaction go to both old log and compacted one, so log is complete at any time.
+ * Servers with host names are not cached, their keys hold host ids valid within the process only.
+ * Likewise servers of unknown proxy types are not cached, their type codes are registered at runtime.
+ * Log of an older version is discarded, version is bumped whenever key layout or type codes change.
+ * Thread safe.
+ */
+class ResultCache implements Closeable {
+    private static final int MAGIC = 0x4A505243;
+    /**
+     * 2: SOCKS4, SOCKS4A and SOCKS5 type codes
+     */
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * key, time, status, attempt, ping, message length
+     */
+    private static final int RECORD_SIZE = 8 + 8 + 1 + 1 + 4 + 2;
+    private static final int MAX_MESSAGE = 1000;
+    private static final int MIN_COMPACT_RECORDS = 10000;
+    /**
+     * Appended records are flushed to file at most this often, ms
+     */
+    private static final int FLUSH_INTERVAL = 1000;
+    private static final ServerStatus.Status[] STATUSES = ServerStatus.Status.values();
+
+    private final Path path;
+    private final Path compactPath;
+    private final LongIntHashMap index = new LongIntHashMap();
+    private final HashMap<String, String> messageTable = new HashMap<>();
+    private int size = 0;
+    private long[] keys = new long[16];
+    private long[] times = new long[16];
+    private byte[] statuses = new byte[16];
+    private byte[] attempts = new byte[16];
+    private int[] pings = new int[16];
+    private String[] messages = new String[16];
+
+    private DataOutputStream out;
+    private long records = 0;
+    private long lastFlush = 0;
+    /**
+     * Records put during compaction, appended to compacted log before it replaces the old one
+     */
+    private ByteArrayOutputStream compactTail;
+    private int compactTailRecords = 0;
+    private boolean closed = false;
+
+    /**
+     * Load cache from log file, file is created when it is absent
+     * @param path - log file path
+     * @throws IOException if file can't be read or written, or it is not a cache log
+     */
+    ResultCache(Path path) throws IOException {
+        this.path = path;
+        this.compactPath = Paths.get(path + ".compact");
+        Files.deleteIfExists(compactPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        load();
+        out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+        if (Files.size(path) == 0) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        }
+        startCompactionIfNeeded();
+    }
+
+    /**
+     * Read all records, torn record at the end of log is cut off
+     * @throws IOException if file is not a cache log of this or older version, or it holds unknown type codes
+     */
+    private void load() throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != MAGIC || version > VERSION) {
+                throw new IOException("Not a result cache file: " + path);
+            }
+            // log of older version is truncated to nothing, its keys may hold other type codes
+            if (version == VERSION) {
+                valid = HEADER_SIZE;
+            }
+            byte[] message = new byte[0xFFFF];
+            while (version == VERSION) {
+                long key = in.readLong();
+                long time = in.readLong();
+                byte status = in.readByte();
+                byte attempt = in.readByte();
+                int ping = in.readInt();
+                int length = in.readUnsignedShort();
+                in.readFully(message, 0, length);
+                if (status < 0 || status >= STATUSES.length) {
+                    break;
+                }
+                if (!isCached(key)) {
+                    throw new IOException("Unknown proxy type code " + ServerKey.type(key) +
+                            " in result cache file: " + path);
+                }
+                store(key, time, status, attempt, ping,
+                        (length > 0) ? new String(message, 0, length, StandardCharsets.UTF_8) : null);
+                records++;
+                valid += RECORD_SIZE + length;
+            }
+        } catch (EOFException ignored) {
+        }
+        if (valid < Files.size(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private void store(long key, long time, byte status, byte attempt, int ping, String message) {
+        int row = index.get(key);
+        if (row < 0) {
+            if (size == keys.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                times = Arrays.copyOf(times, capacity);
+                statuses = Arrays.copyOf(statuses, capacity);
+                attempts = Arrays.copyOf(attempts, capacity);
+                pings = Arrays.copyOf(pings, capacity);
+                messages = Arrays.copyOf(messages, capacity);
+            }
+            row = size++;
+            keys[row] = key;
+            index.putIfAbsent(key, row);
+        }
+        times[row] = time;
+        statuses[row] = status;
+        attempts[row] = attempt;
+        pings[row] = ping;
+        messages[row] = (message != null) ? messageTable.computeIfAbsent(message, m -> m) : null;
+    }
+
+    private static void writeRecord(DataOutputStream out, long key, long time, byte status, byte attempt, int ping,
+                                    String message) throws IOException {
+        byte[] bytes = (message != null) ? message.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        out.writeLong(key);
+        out.writeLong(time);
+        out.writeByte(status);
+        out.writeByte(attempt);
+        out.writeInt(ping);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @return true if key is the same in other processes
+     */
+    private static boolean isCached(long key) {
+        return !ServerKey.isHost(key) && (ServerKey.type(key) & 0xFF) <= ProxyType.LAST_KNOWN;
+    }
+
+    /**
+     * @param ttl - result lifetime, ms
+     * @return cached result tested within ttl, null if there is none
+     */
+    synchronized ServerStatus get(long key, long ttl) {
+        if (!isCached(key)) {
+            return null;
+        }
+        int row = index.get(key);
+        if (row < 0 || System.currentTimeMillis() - times[row] > ttl) {
+            return null;
+        }
+        return new ServerStatus(STATUSES[statuses[row]], pings[row], messages[row], attempts[row] & 0xFF);
+    }
+
+    /**
+     * Store result of complete test, results other than passed or failed are ignored
+     */
+    synchronized void put(long key, ServerStatus status) throws IOException {
+        if (closed || !isCached(key) || (status.getStatusValue() != ServerStatus.Status.OK &&
+                status.getStatusValue() != ServerStatus.Status.FAIL)) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        byte code = (byte) status.getStatusValue().ordinal();
+        byte attempt = (byte) Math.min(status.getAttempt(), 0xFF);
+        String message = status.getErrorMessage();
+        if (message != null && message.length() > MAX_MESSAGE) {
+            message = message.substring(0, MAX_MESSAGE);
+        }
+        store(key, time, code, attempt, status.getPing(), message);
+        writeRecord(out, key, time, code, attempt, status.getPing(), message);
+        if (compactTail != null) {
+            writeRecord(new DataOutputStream(compactTail), key, time, code, attempt, status.getPing(), message);
+            compactTailRecords++;
+        }
+        records++;
+        if (time - lastFlush >= FLUSH_INTERVAL) {
+            out.flush();
+            lastFlush = time;
+        }
+        startCompactionIfNeeded();
+    }
+
+    /**
+     * @return number of cached servers
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private void startCompactionIfNeeded() {
+        if (compactTail == null && !closed && records > MIN_COMPACT_RECORDS && records > 2L * size) {
+            compactTail = new ByteArrayOutputStream();
+            Thread thread = new Thread(this::compact, "Result cache compaction");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Write snapshot of cached results to new log, then switch to it under lock
+     */
+    private void compact() {
+        long[] keys;
+        long[] times;
+        byte[] statuses;
+        byte[] attempts;
+        int[] pings;
+        String[] messages;
+        int size;
+        synchronized (this) {
+            size = this.size;
+            keys = Arrays.copyOf(this.keys, size);
+            times = Arrays.copyOf(this.times, size);
+            statuses = Arrays.copyOf(this.statuses, size);
+            attempts = Arrays.copyOf(this.attempts, size);
+            pings = Arrays.copyOf(this.pings, size);
+            messages = Arrays.copyOf(this.messages, size);
+        }
+        DataOutputStream compacted = null;
+        try {
+            compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compactPath), 1 << 16));
+            compacted.writeInt(MAGIC);
+            compacted.writeInt(VERSION);
+            for (int i = 0; i < size; i++) {
+                writeRecord(compacted, keys[i], times[i], statuses[i], attempts[i], pings[i], messages[i]);
+            }
+            synchronized (this) {
+                compactTail.writeTo(compacted);
+                compacted.close();
+                out.close();
+                try {
+                    Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    records = size + compactTailRecords;
+                } finally {
+                    compactTail = null;
+                    compactTailRecords = 0;
+                    if (!closed) {
+                        out = new DataOutputStream(new BufferedOutputStream(
+                                Files.newOutputStream(path, StandardOpenOption.APPEND), 1 << 16));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                compactTail = null;
+                compactTailRecords = 0;
+            }
+            try {
+                if (compacted != null) {
+                    compacted.close();
+                }
+                Files.deleteIfExists(compactPath);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import util.Histogram;
+import util.net.Timings;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of test run: latency histograms of passed tests per test phase,
+ * request cost without connection setup, durations of successful attempts,
+ * attempts cut by adaptive timeout, pre-scan results, results taken from cache and local socket errors,
+ * counts of complete tests and failed attempts by exception class.
+ * Recorded by test workers, can be read at any time
+ */
+class RunStatistics {
+    private static final Timings.Phase[] PHASES = Timings.Phase.values();
+    private final Histogram[] histograms = new Histogram[PHASES.length];
+    private final Histogram requests = new Histogram();
+    private final Histogram attempts = new Histogram();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder cutAttempts = new LongAdder();
+    private final LongAdder savedMillis = new LongAdder();
+    private final LongAdder probed = new LongAdder();
+    private final LongAdder unreachable = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder localErrors = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private volatile int concurrency = 1;
+
+    RunStatistics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @param timings - phase marks of passed test
+     */
+    void record(Timings timings) {
+        if (timings == null) {
+            return;
+        }
+        for (Timings.Phase phase : PHASES) {
+            histograms[phase.ordinal()].record(timings.get(phase));
+        }
+        requests.record(timings.getRequest());
+        if (timings.isReused()) {
+            reused.increment();
+        }
+    }
+
+    /**
+     * @param duration - successful attempt duration, ms
+     */
+    void recordAttempt(int duration) {
+        attempts.record(duration);
+    }
+
+    /**
+     * @param saved - difference between set timeout and timeout of attempt which timed out, ms
+     */
+    void recordCut(int saved) {
+        cutAttempts.increment();
+        savedMillis.add(saved);
+    }
+
+    /**
+     * @param reachable - pre-scan probe result
+     */
+    void recordProbe(boolean reachable) {
+        probed.increment();
+        if (!reachable) {
+            unreachable.increment();
+        }
+    }
+
+    /**
+     * Count server reported with cached result without test
+     */
+    void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Count attempt failed for lack of local resources, like free ephemeral port
+     */
+    void recordLocalError() {
+        localErrors.increment();
+    }
+
+    /**
+     * @param status - status of complete test
+     */
+    void recordResult(ServerStatus status) {
+        if (status.getStatusValue() == ServerStatus.Status.OK) {
+            passed.increment();
+        } else if (status.getStatusValue() == ServerStatus.Status.FAIL) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * @param error - exception of failed attempt
+     */
+    void recordError(Exception error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    long getPassed() {
+        return passed.sum();
+    }
+
+    long getFailed() {
+        return failed.sum();
+    }
+
+    long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return failed attempts by exception class simple name
+     */
+    Map<String, Long> getErrors() {
+        Map<String, Long> res = new TreeMap<>();
+        errors.forEach((name, count) -> res.put(name, count.sum()));
+        return res;
+    }
+
+    Histogram getHistogram(Timings.Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * @return histogram of total time without connect and handshake
+     */
+    Histogram getRequestHistogram() {
+        return requests;
+    }
+
+    Histogram getAttemptHistogram() {
+        return attempts;
+    }
+
+    /**
+     * @param concurrency - run concurrency, used for wall time estimate
+     */
+    void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        requests.reset();
+        attempts.reset();
+        reused.reset();
+        cutAttempts.reset();
+        savedMillis.reset();
+        probed.reset();
+        unreachable.reset();
+        cacheHits.reset();
+        localErrors.reset();
+        passed.reset();
+        failed.reset();
+        errors.clear();
+    }
+
+    /**
+     * @return phase percentiles table, ms from test start
+     */
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder(String.format("%-12s%8s%8s%8s%8s\n", "Phase, ms", "count", "p50", "p95", "p99"));
+        for (Timings.Phase phase : PHASES) {
+            Histogram histogram = getHistogram(phase);
+            res.append(String.format("%-12s%8d%8d%8d%8d\n", phase, histogram.getCount(),
+                    histogram.getPercentile(50), histogram.getPercentile(95), histogram.getPercentile(99)));
+        }
+        res.append(String.format("%-12s%8d%8d%8d%8d\n", "request", requests.getCount(),
+                requests.getPercentile(50), requests.getPercentile(95), requests.getPercentile(99)));
+        if (reused.sum() > 0) {
+            res.append(String.format("Reused connections: %d of %d passed tests\n",
+                    reused.sum(), getHistogram(Timings.Phase.FIRST_BYTE).getCount()));
+        }
+        long cut = cutAttempts.sum();
+        if (cut > 0) {
+            // every cut attempt would have waited at least the set timeout
+            double saved = savedMillis.sum() / 1000.0;
+            res.append(String.format("Adaptive timeout cut %d attempts, saved %.1f s of test time, ~%.1f s of wall time\n",
+                    cut, saved, saved / concurrency));
+        }
+        if (probed.sum() > 0) {
+            res.append(String.format("Pre-scan probed %d servers, %d unreachable\n", probed.sum(), unreachable.sum()));
+        }
+        if (cacheHits.sum() > 0) {
+            res.append(String.format("Result cache reused %d results\n", cacheHits.sum()));
+        }
+        if (localErrors.sum() > 0) {
+            res.append(String.format("Local socket errors: %d attempts repeated or failed\n", localErrors.sum()));
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,172 @@
+import java.awt.Color;
+
+/**
+ * Stored server status: {new, ok, fail, testing, queued, cancelled}
+ * ping - connect time to server, showing in string replication
+ * emsg - error message showing in string with fail status
+ * attempt - connect attempt
+ * String form is built once and kept until status is changed
+ */
+class ServerStatus {
+    /**
+     * Row colors by status ordinal
+     */
+    private static final Color[] COLORS = {
+            Color.WHITE,
+            new Color(152, 251, 152),
+            Color.PINK,
+            new Color(230, 230, 250),
+            new Color(255, 250, 205),
+            new Color(255, 228, 196)
+    };
+    private static final Color[] SELECTED_COLORS = new Color[COLORS.length];
+
+    static {
+        for (int i = 0; i < COLORS.length; i++) {
+            SELECTED_COLORS[i] = COLORS[i].darker();
+        }
+    }
+
+    private Status status;
+    private int ping = 0;
+    private String emsg;
+    private int attempt = 0;
+    private String text;
+
+    static class Comparator implements java.util.Comparator<ServerStatus> {
+        @Override
+        public int compare(ServerStatus o1, ServerStatus o2) {
+            int statusDelta = o1.getStatusValue().ordinal() - o2.getStatusValue().ordinal();
+            if (statusDelta == 0) {
+                return o1.getPing() - o2.getPing();
+            }
+            return statusDelta;
+        }
+    }
+
+    enum Status {
+        NEW,
+        OK,
+        FAIL,
+        TESTING,
+        QUEUED,
+        CANCELLED
+    }
+
+    /**
+     * Used for highlighting table rows
+     * @param status - Server status
+     * @return shared color of status
+     */
+    public static Color statusToColor(Status status) {
+        return COLORS[status.ordinal()];
+    }
+
+    /**
+     * @param selected - color of selected row, darker one
+     * @return shared color of status
+     */
+    public static Color statusToColor(Status status, boolean selected) {
+        return selected ? SELECTED_COLORS[status.ordinal()] : COLORS[status.ordinal()];
+    }
+
+    public void setErrorMessage(String msg) {
+        this.emsg = msg;
+        this.text = null;
+    }
+
+    public ServerStatus(Status status) {
+        this.status = status;
+    }
+
+    public ServerStatus() {
+        this.status = Status.NEW;
+    }
+
+    public ServerStatus(Status status, int ping, String emsg, int attempt) {
+        this.status = status;
+        this.ping = ping;
+        this.emsg = emsg;
+        this.attempt = attempt;
+    }
+
+    public void setStatusValue(Status status) {
+        this.status = status;
+        this.text = null;
+    }
+
+    public void setOk(int ping) {
+        setPing(ping);
+        setStatusValue(Status.OK);
+    }
+
+    public void setFail(String emsg) {
+        setErrorMessage(emsg);
+        setStatusValue(Status.FAIL);
+    }
+
+    public Status getStatusValue() {
+        return status;
+    }
+
+    public Color getStatusColor() {
+        return ServerStatus.statusToColor(this.status);
+    }
+
+    public void setPing(int ping) {
+        this.ping = ping;
+        this.text = null;
+    }
+
+    public int getPing() {
+        return ping;
+    }
+
+    public String getErrorMessage() {
+        return emsg;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+        this.text = null;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    private String _stringifyAttempt() {
+        if (attempt > 1) {
+            return String.format("# %d: ", attempt);
+        }
+        return "";
+    }
+
+    @Override
+    public String toString() {
+        if (text == null) {
+            text = format();
+        }
+        return text;
+    }
+
+    private String format() {
+        switch (status) {
+            case OK:
+                return String.format("%sOK %.2f sec", _stringifyAttempt(), (float) ping / 1000);
+            case NEW:
+                return "New";
+            case FAIL:
+                return _stringifyAttempt() + "Test fail." + ((emsg != null) ? " " + emsg : "");
+            case TESTING:
+                return _stringifyAttempt() + "Testing...";
+            case QUEUED:
+                // server waiting for retry keeps its last fail message
+                return _stringifyAttempt() + "Queued" + ((emsg != null) ? ". Last fail: " + emsg : "");
+            case CANCELLED:
+                return "Cancelled";
+            default:
+                return "Unknown";
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import util.ServerKey;
+import util.ServerParser;
+
+import javax.swing.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Background import of servers from file.
+ * File is read with big buffered reads, chunks of lines are parsed in parallel
+ * and inserted into model in batches on EDT, keeping file order.
+ * Only a few batches wait for EDT at a time, reader is blocked until EDT takes them.
+ * "imported" property is changed on EDT when reader is stopped and its last batch is added,
+ * after cancel too, so counters are final there. Progress property is file read percent.
+ */
+class ServersImporter extends SwingWorker<Void, Void> {
+    private static final int READ_BUFFER = 1 << 20;
+    private static final int CHUNK_LINES = 8192;
+    /**
+     * Batches posted to EDT and not added yet
+     */
+    private static final int MAX_PENDING = 4;
+
+    private final ServersModel model;
+    private final Path path;
+    private long lines = 0;
+    private int added = 0;
+    private long startTime;
+    private long elapsed;
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    /**
+     * Reader posted its last batch, set on EDT
+     */
+    private boolean drained = false;
+    /**
+     * done() is called, set on EDT
+     */
+    private boolean finished = false;
+
+    ServersImporter(ServersModel model, Path path) {
+        this.model = model;
+        this.path = path;
+    }
+
+    /**
+     * @return future of parsed server keys
+     */
+    private static CompletableFuture<long[]> parse(List<String> chunk) {
+        return CompletableFuture.supplyAsync(() -> {
+            long[] keys = new long[chunk.size()];
+            int count = 0;
+            for (String line : chunk) {
+                long key = ServerParser.parseKey(line);
+                if (key >= 0) {
+                    keys[count++] = key;
+                }
+            }
+            return Arrays.copyOf(keys, count);
+        });
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+        startTime = System.nanoTime();
+        int maxParsing = 2 * Runtime.getRuntime().availableProcessors();
+        ArrayDeque<CompletableFuture<long[]>> parsing = new ArrayDeque<>();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8), READ_BUFFER)) {
+            long size = Math.max(1, channel.size());
+            ArrayList<String> chunk = new ArrayList<>(CHUNK_LINES);
+            String line;
+            while (!isCancelled() && (line = reader.readLine()) != null) {
+                lines++;
+                chunk.add(line);
+                if (chunk.size() == CHUNK_LINES) {
+                    parsing.add(parse(chunk));
+                    chunk = new ArrayList<>(CHUNK_LINES);
+                    // keep order and bound memory: wait for the oldest chunk
+                    while (parsing.size() >= maxParsing) {
+                        insert(parsing.poll().join());
+                    }
+                    setProgress((int) Math.min(100, 100 * channel.position() / size));
+                }
+            }
+            if (!chunk.isEmpty()) {
+                parsing.add(parse(chunk));
+            }
+            while (!parsing.isEmpty() && !isCancelled()) {
+                insert(parsing.poll().join());
+            }
+        } finally {
+            // keys of cancelled import are not added, their host references are dropped
+            for (CompletableFuture<long[]> chunk : parsing) {
+                chunk.thenAccept(keys -> {
+                    for (long key : keys) {
+                        ServerKey.release(key);
+                    }
+                });
+            }
+            elapsed = System.nanoTime() - startTime;
+            // runs after all batches posted before
+            SwingUtilities.invokeLater(() -> {
+                drained = true;
+                fireImported();
+            });
+        }
+        return null;
+    }
+
+    private void insert(long[] batch) {
+        pending.acquireUninterruptibly();
+        SwingUtilities.invokeLater(() -> {
+            try {
+                added += model.addEntries(batch, batch.length);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Called on EDT when background task is complete or cancelled, cancelled reader may still post batches
+     */
+    @Override
+    protected void done() {
+        finished = true;
+        fireImported();
+    }
+
+    private void fireImported() {
+        if (drained && finished) {
+            firePropertyChange("imported", false, true);
+        }
+    }
+
+    /**
+     * @return lines read, valid after import is done
+     */
+    long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return servers added to model
+     */
+    int getAdded() {
+        return added;
+    }
+
+    /**
+     * @return read lines per second, valid after import is done
+     */
+    long getLinesPerSecond() {
+        return (elapsed > 0) ? (long) (lines * 1e9 / elapsed) : lines;
+    }
+}
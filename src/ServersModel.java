@@ -1,315 +1,569 @@
-import util.net.SocketAddressEx;
-import util.net.ProxyType;
+import util.HostTable;
+import util.LongIntHashMap;
+import util.ServerKey;
 import util.ServerParser;
+import util.ServerScanner;
+import util.net.ProxyType;
 
-import javax.swing.table.DefaultTableModel;
-import java.awt.*;
-import java.util.*;
-import java.util.function.Supplier;
-import java.util.zip.DataFormatException;
+import javax.swing.Timer;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
- * Stored server status: {new, ok, fail, testing, queued, cancelled}
- * ping - connect time to server, showing in string replication
- * emsg - error message showing in string with fail status
- * attempt - connect attempt
+ * Servers table model. Servers are stored in columns of primitive arrays without per-row objects:
+ * packed IPv4 address or host id with host flag, port, type code, status code, ping, attempt
+ * and interned error message.
+ * Rows are found by server key with an open addressing index, which also rejects duplicates.
+ * Rows are added, edited and removed on EDT only, test workers write status columns under model lock
+ * and changed rows are sent to table on flush timer ticks, so table repaints at most once per tick.
+ * Table paints and sorts rows by status columns as of the last flush, copied on EDT under model lock,
+ * so reading them doesn't contend with workers. Display values are cached per row: host text and status
+ * snapshot with its text, the status snapshot is dropped by flush of its row and rebuilt when it is painted again.
  */
-class ServerStatus {
-    private Status status;
-    private int ping = 0;
-    private String emsg;
-    private int attempt = 0;
-
-    static class Comparator implements java.util.Comparator<ServerStatus> {
-        @Override
-        public int compare(ServerStatus o1, ServerStatus o2) {
-            int statusDelta = o1.getStatusValue().ordinal() - o2.getStatusValue().ordinal();
-            if (statusDelta == 0) {
-                return o1.getPing() - o2.getPing();
-            }
-            return statusDelta;
-        }
-    }
-
-    enum Status {
-        NEW,
-        OK,
-        FAIL,
-        TESTING,
-        QUEUED,
-        CANCELLED
-    }
+public class ServersModel extends AbstractTableModel implements TestRunner.Listener {
 
     /**
-     * Used for highlighting table rows
-     * @param status - Server status
-     * @return
+     * Updates are flushed to table with this period, ms
      */
-    public static Color statusToColor(Status status) {
-        switch (status) {
-            case OK:
-                return new Color(152, 251, 152);
-            case FAIL:
-                return Color.PINK;
-            case TESTING:
-                return new Color(230, 230, 250);
-            case QUEUED:
-                return new Color(255, 250, 205);
-            case CANCELLED:
-                return new Color(255, 228, 196);
-            default:
-                return Color.WHITE;
-        }
-    }
+    private static final int UPDATE_PERIOD = 100;
+    /**
+     * Flush with more row ranges than this fires single range over all of them
+     */
+    private static final int MAX_UPDATE_RANGES = 64;
+    /**
+     * Error messages over this count are not stored
+     */
+    private static final int MAX_MESSAGES = 0xFFFF;
+    private static final String[] COLUMN_NAMES = {"Type", "Host", "Port", "Status"};
+    private static final ServerStatus.Status[] STATUSES = ServerStatus.Status.values();
+    private static final byte NEW = (byte) ServerStatus.Status.NEW.ordinal();
+    private static final byte TESTING = (byte) ServerStatus.Status.TESTING.ordinal();
+    private static final byte QUEUED = (byte) ServerStatus.Status.QUEUED.ordinal();
+    private static final byte CANCELLED = (byte) ServerStatus.Status.CANCELLED.ordinal();
+
+    private int size = 0;
+    private int[] ips = new int[0];
+    /**
+     * Row address in ips is {@link HostTable} id
+     */
+    private boolean[] named = new boolean[0];
+    private char[] ports = new char[0];
+    private byte[] types = new byte[0];
+    private byte[] statuses = new byte[0];
+    private byte[] attempts = new byte[0];
+    private int[] pings = new int[0];
+    private char[] messages = new char[0];
+    /**
+     * Status columns as of the last flush, EDT only
+     */
+    private byte[] viewStatuses = new byte[0];
+    private byte[] viewAttempts = new byte[0];
+    private int[] viewPings = new int[0];
+    private String[] viewMessages = new String[0];
+    /**
+     * Display values of rows, null when not built yet or outdated, EDT only
+     */
+    private String[] hostViews = new String[0];
+    private ServerStatus[] statusViews = new ServerStatus[0];
+
+    private final LongIntHashMap index = new LongIntHashMap();
+    private final ArrayList<String> messageTable = new ArrayList<>();
+    private final HashMap<String, Character> messageIds = new HashMap<>();
 
-    public void setErrorMessage(String msg) {
-        this.emsg = msg;
+    private long[] updatedBits = new long[0];
+    private int[] updatedRows = new int[16];
+    private int updatedCount = 0;
+    private boolean updatedAll = false;
+    private final Timer updateTimer = new Timer(UPDATE_PERIOD, e -> flushUpdates());
+
+    ServersModel() {
+        // message 0 is "no message"
+        messageTable.add(null);
     }
 
-    public ServerStatus(Status status) {
-        this.status = status;
+    @Override
+    public int getRowCount() {
+        return size;
     }
 
-    public ServerStatus() {
-        this.status = Status.NEW;
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
     }
 
-    public void setStatusValue(Status status) {
-        this.status = status;
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
     }
 
-    public void setOk(int ping) {
-        setPing(ping);
-        setStatusValue(Status.OK);
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case 0:
+                return ProxyType.getName(types[row]);
+            case 1:
+                return getHostView(row);
+            case 2:
+                return (int) ports[row];
+            default:
+                return getStatusView(row);
+        }
     }
 
-    public void setFail(String emsg) {
-        this.emsg = emsg;
-        setStatusValue(Status.FAIL);
+    @Override
+    public void setValueAt(Object aValue, int row, int column) {
+        byte type = types[row];
+        int ip = ips[row];
+        boolean host = named[row];
+        int port = ports[row];
+        boolean hostEdited = false;
+        switch (column) {
+            case 0:
+                try {
+                    type = ProxyType.getCode(aValue.toString());
+                } catch (IllegalArgumentException e) {
+                    return;
+                }
+                break;
+            case 1:
+                ServerScanner scanner = ServerParser.scan(aValue.toString());
+                if (scanner.hasAddress()) {
+                    ip = scanner.getIp();
+                    host = false;
+                } else {
+                    long hostKey = ServerKey.of(type, aValue.toString().trim(), port);
+                    if (hostKey < 0) {
+                        return;
+                    }
+                    ip = ServerKey.ip(hostKey);
+                    host = ServerKey.isHost(hostKey);
+                }
+                hostEdited = true;
+                break;
+            case 2:
+                try {
+                    port = Integer.parseInt(aValue.toString());
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                if (port < 0 || port > 0xFFFF) {
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+
+        long key = ServerKey.of(type, ip, port) | (host ? ServerKey.HOST : 0);
+        synchronized (this) {
+            // edit which makes duplicate of another server is rejected
+            if (!index.putIfAbsent(key, row)) {
+                if (hostEdited) {
+                    ServerKey.release(key);
+                }
+                return;
+            }
+            long oldKey = getKey(row);
+            index.remove(oldKey);
+            if (hostEdited) {
+                // row holds reference of its new host
+                ServerKey.release(oldKey);
+            }
+            types[row] = type;
+            ips[row] = ip;
+            named[row] = host;
+            ports[row] = (char) port;
+            hostViews[row] = null;
+        }
+        fireTableCellUpdated(row, column);
     }
 
-    public Status getStatusValue() {
-        return status;
+    /**
+     * Servers in test run are not editable, so test results are never written to edited server
+     */
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column != 3 && statuses[row] != TESTING && statuses[row] != QUEUED;
     }
 
-    public Color getStatusColor() {
-        return ServerStatus.statusToColor(this.status);
+    /**
+     * Updates flush timer runs only while model has listeners,
+     * so unused model is not referenced by timer queue
+     */
+    @Override
+    public void addTableModelListener(TableModelListener l) {
+        super.addTableModelListener(l);
+        if (!updateTimer.isRunning()) {
+            updateTimer.start();
+        }
     }
 
-    public void setPing(int ping) {
-        this.ping = ping;
+    @Override
+    public void removeTableModelListener(TableModelListener l) {
+        super.removeTableModelListener(l);
+        if (getTableModelListeners().length == 0) {
+            updateTimer.stop();
+        }
     }
 
-    public int getPing() {
-        return ping;
+    long getKey(int row) {
+        return ServerKey.of(types[row], ips[row], ports[row]) | (named[row] ? ServerKey.HOST : 0);
     }
 
-    public void setAttempt(int attempt) {
-        this.attempt = attempt;
+    /**
+     * @return row status as of the last flush, called on EDT
+     */
+    ServerStatus.Status getStatusValue(int row) {
+        return STATUSES[viewStatuses[row]];
     }
 
-    private String _stringifyAttempt() {
-        if (attempt > 1) {
-            return String.format("# %d: ", attempt);
-        }
-        return "";
+    /**
+     * @return sort value of row status as of the last flush, the same order as of {@link ServerStatus.Comparator}:
+     * status code in high int, ping in low int, called on EDT
+     */
+    long getStatusKey(int row) {
+        return ((long) viewStatuses[row] << 32) | (viewPings[row] & 0xFFFFFFFFL);
     }
 
-    @Override
-    public String toString() {
-        switch (status) {
-            case OK:
-                return String.format("%sOK %.2f sec", _stringifyAttempt(), (float) ping / 1000);
-            case NEW:
-                return "New";
-            case FAIL:
-                return _stringifyAttempt() + "Test fail." + ((emsg != null) ? " " + emsg : "");
-            case TESTING:
-                return _stringifyAttempt() + "Testing...";
-            case QUEUED:
-                return "Queued";
-            case CANCELLED:
-                return "Cancelled";
+    /**
+     * Compare rows by column which is changed by edits only, called on EDT
+     * @param column - type, address or port column
+     * @return order of type names, IPv4 addresses by value before hosts by name, or ports
+     */
+    int compareRows(int column, int a, int b) {
+        switch (column) {
+            case 0:
+                return ProxyType.getName(types[a]).compareTo(ProxyType.getName(types[b]));
+            case 1:
+                if (named[a] != named[b]) {
+                    return named[a] ? 1 : -1;
+                }
+                return named[a] ? getHostView(a).compareTo(getHostView(b)) : Integer.compareUnsigned(ips[a], ips[b]);
+            case 2:
+                return ports[a] - ports[b];
             default:
-                return "Unknown";
+                throw new IllegalArgumentException("Column " + column + " is not static");
         }
     }
-}
-
-/**
- * Stored server connection data {proxy type, ip address and port, server status}
- */
-class ServerModelItem extends Vector<Object> {
-    private SocketAddressEx address;
 
-    static class IpAddressUtil implements Supplier<SocketAddressEx> {
-        SocketAddressEx data;
-
-        IpAddressUtil(SocketAddressEx data) {
-            this.data = data;
+    /**
+     * @return host text of row, called on EDT
+     */
+    private String getHostView(int row) {
+        String view = hostViews[row];
+        if (view == null) {
+            view = named[row] ? HostTable.name(ips[row]) : ServerScanner.ipToString(ips[row]);
+            hostViews[row] = view;
         }
+        return view;
+    }
 
-        @Override
-        public SocketAddressEx get() {
-            return data;
+    /**
+     * @return status snapshot of row as of the last flush shared by table cells, it must not be changed,
+     * called on EDT
+     */
+    private ServerStatus getStatusView(int row) {
+        ServerStatus view = statusViews[row];
+        if (view == null) {
+            view = new ServerStatus(STATUSES[viewStatuses[row]], viewPings[row], viewMessages[row],
+                    viewAttempts[row] & 0xFF);
+            statusViews[row] = view;
         }
+        return view;
+    }
 
-        @Override
-        public String toString() {
-            return data.getIp();
-        }
+    /**
+     * Copy row status to its view columns, called on EDT under model lock
+     */
+    private void snapshot(int row) {
+        viewStatuses[row] = statuses[row];
+        viewAttempts[row] = attempts[row];
+        viewPings[row] = pings[row];
+        viewMessages[row] = messageTable.get(messages[row]);
+        statusViews[row] = null;
     }
 
-    static class PortUtil implements Supplier<SocketAddressEx> {
-        SocketAddressEx data;
+    /**
+     * @return status snapshot of row
+     */
+    synchronized ServerStatus getStatus(int row) {
+        return new ServerStatus(STATUSES[statuses[row]], pings[row], messageTable.get(messages[row]),
+                attempts[row] & 0xFF);
+    }
 
-        PortUtil(SocketAddressEx data) {
-            this.data = data;
-        }
+    boolean addEntry(long key) {
+        return addEntries(new long[]{key}, 1) == 1;
+    }
 
-        @Override
-        public SocketAddressEx get() {
-            return data;
+    /**
+     * Add batch of servers with single table event, duplicates and invalid keys are skipped.
+     * Model takes host references of the keys, references of skipped keys are released
+     * @param keys - keys of servers to add
+     * @param count - keys count
+     * @return added servers count
+     */
+    int addEntries(long[] keys, int count) {
+        int first = size;
+        synchronized (this) {
+            ensureCapacity(size + count);
+            for (int i = 0; i < count; i++) {
+                long key = keys[i];
+                if (key >= 0 && index.putIfAbsent(key, size)) {
+                    types[size] = ServerKey.type(key);
+                    ips[size] = ServerKey.ip(key);
+                    named[size] = ServerKey.isHost(key);
+                    ports[size] = (char) ServerKey.port(key);
+                    statuses[size] = NEW;
+                    attempts[size] = 0;
+                    pings[size] = 0;
+                    messages[size] = 0;
+                    hostViews[size] = null;
+                    snapshot(size);
+                    size++;
+                } else {
+                    ServerKey.release(key);
+                }
+            }
         }
-
-        @Override
-        public String toString() {
-            return "" + data.getPort();
+        int added = size - first;
+        if (added > 0) {
+            fireTableRowsInserted(first, size - 1);
         }
+        return added;
     }
 
-    public static class PortComparator implements java.util.Comparator<PortUtil> {
-        @Override
-        public int compare(PortUtil o1, PortUtil o2) {
-            return o1.data.getPort() - o2.data.getPort();
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ips.length) {
+            return;
         }
+        capacity = Math.max(capacity, ips.length + (ips.length >> 1) + 16);
+        ips = Arrays.copyOf(ips, capacity);
+        named = Arrays.copyOf(named, capacity);
+        ports = Arrays.copyOf(ports, capacity);
+        types = Arrays.copyOf(types, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+        attempts = Arrays.copyOf(attempts, capacity);
+        pings = Arrays.copyOf(pings, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+        viewStatuses = Arrays.copyOf(viewStatuses, capacity);
+        viewAttempts = Arrays.copyOf(viewAttempts, capacity);
+        viewPings = Arrays.copyOf(viewPings, capacity);
+        viewMessages = Arrays.copyOf(viewMessages, capacity);
+        hostViews = Arrays.copyOf(hostViews, capacity);
+        statusViews = Arrays.copyOf(statusViews, capacity);
+        updatedBits = Arrays.copyOf(updatedBits, (capacity + 63) >> 6);
     }
 
-    ServerModelItem(ProxyType type, String ip, int port, ServerStatus serverStatus) {
-        super();
-        address = new SocketAddressEx(ip, port);
-        add(type);
-        add(new IpAddressUtil(address));
-        add(new PortUtil(address));
-        add(serverStatus);
+    /**
+     * Remove servers, servers in test are kept.
+     * Removed queued servers are skipped by test run, as their keys are not found anymore
+     * @param items - rows to remove
+     */
+    synchronized void removeItemsSafely(int[] items) {
+        boolean[] removed = new boolean[size];
+        for (int row : items) {
+            removed[row] = statuses[row] != TESTING;
+        }
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            long key = getKey(row);
+            if (removed[row]) {
+                index.remove(key);
+                ServerKey.release(key);
+                continue;
+            }
+            if (count != row) {
+                ips[count] = ips[row];
+                named[count] = named[row];
+                ports[count] = ports[row];
+                types[count] = types[row];
+                statuses[count] = statuses[row];
+                attempts[count] = attempts[row];
+                pings[count] = pings[row];
+                messages[count] = messages[row];
+                hostViews[count] = hostViews[row];
+                index.replace(key, count);
+            }
+            // pending update of row is dropped below
+            snapshot(count);
+            count++;
+        }
+        Arrays.fill(hostViews, count, size, null);
+        Arrays.fill(statusViews, count, size, null);
+        Arrays.fill(viewMessages, count, size, null);
+        size = count;
+        // rows are renumbered, pending updates are covered by table data change event
+        Arrays.fill(updatedBits, 0);
+        updatedCount = 0;
+        updatedAll = false;
     }
 
-
-    public ProxyType getType() {
-        return (ProxyType) get(0);
+    /**
+     * @return keys of all servers
+     */
+    synchronized long[] getKeys() {
+        long[] keys = new long[size];
+        for (int row = 0; row < size; row++) {
+            keys[row] = getKey(row);
+        }
+        return keys;
     }
 
-    public SocketAddressEx getSocketAddress() {
-        return address;
+    synchronized boolean contains(long key) {
+        return index.containsKey(key);
     }
 
-    public ServerStatus getServerStatus() {
-        Object obj = this.get(3);
-        if (obj instanceof ServerStatus) {
-            return (ServerStatus) obj;
+    /**
+     * Mark all servers which are not tested yet as queued
+     * @return keys of queued servers
+     */
+    synchronized long[] queueUntested() {
+        long[] keys = new long[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (statuses[row] != TESTING && statuses[row] != QUEUED) {
+                statuses[row] = QUEUED;
+                attempts[row] = 0;
+                messages[row] = 0;
+                keys[count++] = getKey(row);
+            }
         }
-        return null;
-    }
-
-    @Override
-    public synchronized boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        ServerModelItem that = (ServerModelItem) o;
-        return this.getType().equals(that.getType()) &&
-                this.getSocketAddress().equals(that.getSocketAddress());
+        if (count > 0) {
+            updatedAll = true;
+        }
+        return Arrays.copyOf(keys, count);
     }
 
     @Override
-    public synchronized int hashCode() {
-        return Objects.hash(getType(), getSocketAddress());
+    public synchronized boolean starting(long key) {
+        int row = index.get(key);
+        if (row < 0 || statuses[row] != QUEUED) {
+            return false;
+        }
+        statuses[row] = TESTING;
+        markUpdated(row);
+        return true;
     }
-}
-
-public class ServersModel extends DefaultTableModel implements Iterable<ServerModelItem> {
-
-    private Vector<ServerModelItem> data = new Vector<>();
 
     @Override
-    public void setValueAt(Object aValue, int row, int column) {
-        switch (column) {
-            case 0:
-                data.get(row).getType().setData(aValue.toString());
-                break;
-            case 1:
-                SocketAddressEx address = ServerParser.extractAddress((String) aValue);
-                if (!address.getIp().isEmpty()) {
-                    data.get(row).getSocketAddress().setIp(address.getIp());
-                }
-                break;
-            case 2:
-                try {
-                    data.get(row).getSocketAddress().setPort(Integer.parseInt((String) aValue));
-                } catch (NumberFormatException ignored) {
-                }
-                break;
-            default:
-                super.setValueAt(aValue, row, column);
+    public synchronized void changed(long key, ServerStatus status) {
+        int row = index.get(key);
+        if (row < 0) {
+            return;
         }
+        statuses[row] = (byte) status.getStatusValue().ordinal();
+        attempts[row] = (byte) Math.min(status.getAttempt(), 0xFF);
+        pings[row] = status.getPing();
+        messages[row] = intern(status.getErrorMessage());
+        markUpdated(row);
     }
 
     @Override
-    public boolean isCellEditable(int row, int column) {
-        return column != 3;
+    public void tested(long key, ServerStatus status) {
+        changed(key, status);
     }
 
     @Override
-    public Iterator<ServerModelItem> iterator() {
-        return data.iterator();
-    }
-
-    ServersModel() {
-        super();
-        Vector<Object> columNames = new Vector<>(Arrays.asList("Type", "Ip", "Port", "Status"));
-        setDataVector(data, columNames);
-    }
-
-    boolean addEntry(ServerModelItem item) {
-        if (item != null && data.indexOf(item) == -1) {
-            addRow(item);
-            return true;
+    public synchronized void cancelled(long key) {
+        int row = index.get(key);
+        if (row >= 0 && statuses[row] == QUEUED) {
+            statuses[row] = CANCELLED;
+            markUpdated(row);
         }
-        return false;
     }
 
-    boolean addEntry(ProxyType type, String ip, int port, ServerStatus serverStatus) {
-        ServerModelItem item = new ServerModelItem(type, ip, port, serverStatus);
-        return addEntry(item);
-    }
-
-    static ServerModelItem parseEntry(String line) throws DataFormatException {
-        ProxyType type = ServerParser.extractType(line);
-        SocketAddressEx address = ServerParser.extractAddress(line);
-        if (type != null) {
-            return new ServerModelItem(type, address.getIp(), address.getPort(), new ServerStatus());
+    /**
+     * @return message index, 0 for null or when messages table is full
+     */
+    private char intern(String message) {
+        if (message == null) {
+            return 0;
+        }
+        Character id = messageIds.get(message);
+        if (id == null) {
+            if (messageTable.size() > MAX_MESSAGES) {
+                return 0;
+            }
+            id = (char) messageTable.size();
+            messageTable.add(message);
+            messageIds.put(message, id);
         }
-        throw new DataFormatException();
+        return id;
     }
 
-    ServerModelItem getEntry(int index) {
-        return data.get(index);
+    /**
+     * Record row change, called under model lock.
+     * Changed rows are sent to table on the next flush tick
+     */
+    private void markUpdated(int row) {
+        long bit = 1L << row;
+        if ((updatedBits[row >> 6] & bit) != 0) {
+            return;
+        }
+        updatedBits[row >> 6] |= bit;
+        if (updatedCount == updatedRows.length) {
+            updatedRows = Arrays.copyOf(updatedRows, updatedCount * 2);
+        }
+        updatedRows[updatedCount++] = row;
     }
 
-    ServerModelItem getEntry(ServerStatus.Status statusValue) {
-        for (ServerModelItem item : data) {
-            if (item.getServerStatus().getStatusValue() == statusValue) {
-                return item;
+    /**
+     * Copy statuses of servers changed since last flush to view columns and fire coalesced row update events,
+     * called on EDT
+     */
+    void flushUpdates() {
+        int[] rows;
+        int count;
+        boolean all;
+        synchronized (this) {
+            all = updatedAll;
+            rows = Arrays.copyOf(updatedRows, updatedCount);
+            count = updatedCount;
+            if (all) {
+                Arrays.fill(updatedBits, 0);
+                for (int row = 0; row < size; row++) {
+                    snapshot(row);
+                }
+            } else {
+                for (int row : rows) {
+                    updatedBits[row >> 6] &= ~(1L << row);
+                    snapshot(row);
+                }
             }
+            updatedCount = 0;
+            updatedAll = false;
         }
-        return null;
-    }
-
-    void removeItemsSafely(int[] items) {
-        Arrays.sort(items);
+        if (all) {
+            if (size > 0) {
+                fireTableRowsUpdated(0, size - 1);
+            }
+            return;
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(rows, 0, count);
 
-        for (int i = items.length - 1; i >= 0; i--) {
-            if (data.get(items[i]).getServerStatus().getStatusValue() != ServerStatus.Status.TESTING) {
-                data.remove(items[i]);
+        int ranges = 1;
+        for (int i = 1; i < count; i++) {
+            if (rows[i] > rows[i - 1] + 1) {
+                ranges++;
+            }
+        }
+        if (ranges > MAX_UPDATE_RANGES) {
+            fireTableRowsUpdated(rows[0], rows[count - 1]);
+            return;
+        }
+        int first = rows[0];
+        for (int i = 1; i <= count; i++) {
+            if (i == count || rows[i] > rows[i - 1] + 1) {
+                fireTableRowsUpdated(first, rows[i - 1]);
+                if (i < count) {
+                    first = rows[i];
+                }
             }
         }
     }
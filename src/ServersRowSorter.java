@@ -0,0 +1,229 @@
+import util.OrderIndex;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Row sorter of servers table with incrementally maintained order: rows are kept in order statistic tree,
+ * and a row is moved only when its sort value changes, so a flush of changed statuses costs O(log n) per
+ * changed row instead of full re-sort. Status column is sorted by status and ping, as by
+ * {@link ServerStatus.Comparator}; type, address and port columns change only by cell edits, so their order
+ * is not touched by status updates. Ties are broken by model row.
+ * "OK only" filter is counted in the same tree, so it is switched without scan of rows.
+ * Used on EDT only.
+ */
+class ServersRowSorter extends RowSorter<ServersModel> {
+    private static final int STATUS_COLUMN = 3;
+    private static final long OK = (long) ServerStatus.Status.OK.ordinal() << 32;
+
+    private final ServersModel model;
+    private final OrderIndex index = new OrderIndex(Integer::compare);
+    /**
+     * Status sort values of rows in the index, workers change model statuses between flushes,
+     * so the tree is ordered by values it has seen
+     */
+    private long[] statusKeys = new long[0];
+    private int rows = 0;
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private boolean okOnly = false;
+
+    ServersRowSorter(ServersModel model) {
+        this.model = model;
+        rebuild();
+    }
+
+    @Override
+    public ServersModel getModel() {
+        return model;
+    }
+
+    /**
+     * Sort by column ascending, or descending when it is sorted ascending already
+     */
+    @Override
+    public void toggleSortOrder(int column) {
+        SortOrder order = SortOrder.ASCENDING;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column &&
+                sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        setSortKeys(Collections.singletonList(new SortKey(column, order)));
+    }
+
+    /**
+     * Only the first key is used, rows are unsorted without keys
+     */
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> sortKeys = (keys == null || keys.isEmpty() || keys.get(0).getSortOrder() == SortOrder.UNSORTED) ?
+                Collections.emptyList() : Collections.singletonList(keys.get(0));
+        if (sortKeys.equals(this.sortKeys)) {
+            return;
+        }
+        int column = sortKeys.isEmpty() ? -1 : sortKeys.get(0).getColumn();
+        if (column >= model.getColumnCount()) {
+            throw new IllegalArgumentException("Column " + column + " is out of model");
+        }
+        this.sortKeys = sortKeys;
+        fireSortOrderChanged();
+        int[] last = index.toArray(okOnly);
+        rebuild();
+        fireRowSorterChanged(last);
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * @param okOnly - show only passed servers
+     */
+    void setOkOnly(boolean okOnly) {
+        if (okOnly == this.okOnly) {
+            return;
+        }
+        int[] last = index.toArray(this.okOnly);
+        this.okOnly = okOnly;
+        fireRowSorterChanged(last);
+    }
+
+    /**
+     * Fill index with all model rows in the current order
+     */
+    private void rebuild() {
+        index.clear();
+        index.setComparator(comparator());
+        rows = model.getRowCount();
+        statusKeys = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            statusKeys[row] = model.getStatusKey(row);
+            index.add(row, isOk(statusKeys[row]));
+        }
+    }
+
+    private OrderIndex.IdComparator comparator() {
+        if (sortKeys.isEmpty()) {
+            return Integer::compare;
+        }
+        int column = sortKeys.get(0).getColumn();
+        int sign = (sortKeys.get(0).getSortOrder() == SortOrder.DESCENDING) ? -1 : 1;
+        return (a, b) -> {
+            int res = (column == STATUS_COLUMN) ? Long.compare(statusKeys[a], statusKeys[b]) :
+                    model.compareRows(column, a, b);
+            return (res != 0) ? sign * res : Integer.compare(a, b);
+        };
+    }
+
+    private static boolean isOk(long statusKey) {
+        return (statusKey & 0xFFFFFFFF00000000L) == OK;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        return this.index.get(index, okOnly);
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (index < 0 || index >= rows) {
+            throw new IndexOutOfBoundsException("Row " + index + " of " + rows);
+        }
+        return this.index.rank(index, okOnly);
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return index.size(okOnly);
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        rebuild();
+        fireRowSorterChanged(null);
+    }
+
+    @Override
+    public void allRowsChanged() {
+        rebuild();
+        fireRowSorterChanged(null);
+    }
+
+    /**
+     * Rows appended to model are added to index, rows inserted before others renumber them and rebuild it
+     */
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        if (firstRow != rows) {
+            rebuild();
+        } else {
+            rows = endRow + 1;
+            if (statusKeys.length < rows) {
+                statusKeys = Arrays.copyOf(statusKeys, Math.max(rows, statusKeys.length + (statusKeys.length >> 1)));
+            }
+            for (int row = firstRow; row <= endRow; row++) {
+                statusKeys[row] = model.getStatusKey(row);
+                index.add(row, isOk(statusKeys[row]));
+            }
+        }
+        // JTable keeps selection in model rows during model events, previous order is not needed
+        fireRowSorterChanged(null);
+    }
+
+    /**
+     * Deleted rows renumber the following ones, index is rebuilt
+     */
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        rebuild();
+        fireRowSorterChanged(null);
+    }
+
+    /**
+     * Move rows whose status sort value changed, other rows are not touched
+     */
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        boolean changed = false;
+        for (int row = firstRow; row <= endRow && row < rows; row++) {
+            long statusKey = model.getStatusKey(row);
+            if (statusKey != statusKeys[row]) {
+                update(row, statusKey);
+                changed = true;
+            }
+        }
+        if (changed) {
+            fireRowSorterChanged(null);
+        }
+    }
+
+    /**
+     * Edited cell of sorted column moves its row
+     */
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        if (sortKeys.isEmpty() || column != sortKeys.get(0).getColumn() || column == STATUS_COLUMN) {
+            rowsUpdated(firstRow, endRow);
+            return;
+        }
+        for (int row = firstRow; row <= endRow && row < rows; row++) {
+            update(row, model.getStatusKey(row));
+        }
+        fireRowSorterChanged(null);
+    }
+
+    private void update(int row, long statusKey) {
+        // row is removed under its old value, so the tree stays ordered
+        index.remove(row);
+        statusKeys[row] = statusKey;
+        index.add(row, isOk(statusKey));
+    }
+}
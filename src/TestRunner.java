@@ -0,0 +1,968 @@
+import util.ServerKey;
+import util.net.ConnectionGovernor;
+import util.net.HostResolver;
+import util.net.NioProxyTester;
+import util.net.ProxyTester;
+import util.net.ProxyType;
+import util.net.SocketAddressEx;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Test run of servers identified by keys (see {@link ServerKey}), results are sent to listener.
+ * Servers are queued in batches of keys taken with atomic cursor, so queue costs no object per server,
+ * every worker task takes servers one by one until the queue is empty,
+ * workers count is the run concurrency limit.
+ * Workers are virtual threads when the runtime supports them, platform threads otherwise.
+ * With TCP pre-scan, servers are first probed with non-blocking connects, many at once,
+ * and only reachable servers are queued for workers while other probes go on.
+ * Worker makes one attempt at a time: server failed by timeout or connect error is queued again
+ * for its next attempt after backoff, workers take due retries first and fresh servers otherwise.
+ * With result cache, servers tested within cache TTL are reported with cached result without test,
+ * results of complete tests are stored to cache.
+ * With connection governor, every attempt waits for target host slot and connection token,
+ * attempt failed for lack of local ports is repeated without counting, up to a limit.
+ * Abort cuts attempts and probes in flight, workers of the aborted run exit on their own,
+ * so the next run starts with new workers at once.
+ * Servers with host names are resolved by shared resolver off the workers: worker hands server
+ * with unresolved host to resolver and takes the next one, resolved server is queued as due retry
+ * and server with unknown host is tested as failed. Pre-scan resolves hosts before probes the same way.
+ * Target host of SOCKS4 servers, which can't resolve it, is resolved by the same resolver.
+ */
+class TestRunner {
+    /**
+     * Test run events, called on worker threads
+     */
+    interface Listener {
+        /**
+         * Called when server is taken from queue
+         * @return false to skip server
+         */
+        default boolean starting(long key) {
+            return true;
+        }
+
+        /**
+         * Called on status change during server test
+         */
+        default void changed(long key, ServerStatus status) {
+        }
+
+        /**
+         * Called when server test is complete
+         */
+        default void tested(long key, ServerStatus status) {
+        }
+
+        /**
+         * Called for queued server when run is aborted
+         */
+        default void cancelled(long key) {
+        }
+    }
+
+    private static class Batch {
+        private final long[] keys;
+        /**
+         * Listener is notified of starting servers already, by pre-scan
+         */
+        private final boolean started;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Batch(long[] keys, boolean started) {
+            this.keys = keys;
+            this.started = started;
+        }
+
+        /**
+         * @return key of next server, -1 when batch is exhausted
+         */
+        long take() {
+            int i = next.getAndIncrement();
+            return (i < keys.length) ? keys[i] : -1;
+        }
+    }
+
+    /**
+     * Attempt in progress, abort cuts it by interrupt of its thread and by canceller of its test
+     */
+    private static class Attempt {
+        private final Thread thread = Thread.currentThread();
+        private Runnable canceller;
+        private boolean cancelled = false;
+        private boolean done = false;
+
+        /**
+         * @param canceller - cuts the started test, it is run at once if attempt is cancelled already
+         */
+        synchronized void started(Runnable canceller) {
+            this.canceller = canceller;
+            if (cancelled) {
+                canceller.run();
+            }
+        }
+
+        synchronized void cancel() {
+            if (done || cancelled) {
+                return;
+            }
+            cancelled = true;
+            thread.interrupt();
+            if (canceller != null) {
+                canceller.run();
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Called by attempt thread, no interrupt reaches it after that and pending one is cleared
+         */
+        void finish() {
+            synchronized (this) {
+                done = true;
+            }
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Server waiting for its next attempt
+     */
+    private static class Retry implements Comparable<Retry> {
+        private final long key;
+        /**
+         * Last fail status with the number of the next attempt
+         */
+        private final ServerStatus status;
+        /**
+         * Eligible time, ms of {@link System#nanoTime()}
+         */
+        private final long due;
+        /**
+         * Attempts repeated for local socket errors
+         */
+        private final int localErrors;
+
+        Retry(long key, ServerStatus status, long due, int localErrors) {
+            this.key = key;
+            this.status = status;
+            this.due = due;
+            this.localErrors = localErrors;
+        }
+
+        @Override
+        public int compareTo(Retry o) {
+            return Long.compare(due, o.due);
+        }
+    }
+
+    private final Listener listener;
+    private final ConcurrentLinkedQueue<Batch> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Batch> prescanQueue = new ConcurrentLinkedQueue<>();
+    private final RunStatistics statistics = new RunStatistics();
+    /**
+     * Servers waiting for next attempt by eligible time, guarded by runner lock
+     */
+    private final PriorityQueue<Retry> retries = new PriorityQueue<>();
+    private final LongAdder inFlight = new LongAdder();
+    private final Set<Attempt> running = ConcurrentHashMap.newKeySet();
+    private final Set<CompletableFuture<?>> probes = ConcurrentHashMap.newKeySet();
+    private final Set<CompletableFuture<?>> lookups = ConcurrentHashMap.newKeySet();
+    private final HostResolver resolver = new HostResolver(RESOLVER_CONCURRENCY);
+
+    /**
+     * Successful attempts needed before adaptive timeout is used
+     */
+    private static final int ADAPTIVE_MIN_SAMPLES = 20;
+    private static final double ADAPTIVE_PERCENTILE = 99;
+    /**
+     * Adaptive timeout is the percentile of successful attempt durations multiplied by this margin
+     */
+    private static final double ADAPTIVE_MARGIN = 1.5;
+    /**
+     * Upper bound of retry backoff, ms
+     */
+    private static final int MAX_RETRY_BACKOFF = 60 * 1000;
+    /**
+     * Attempt failed for lack of local resources is repeated this many times without counting
+     */
+    private static final int MAX_LOCAL_ERRORS = 3;
+    /**
+     * Host name lookups in flight
+     */
+    private static final int RESOLVER_CONCURRENCY = 16;
+    private volatile String url = "";
+    private volatile String targetHost = "";
+    private volatile int attempts = 3;
+    private volatile int timeout = 20 * 1000;
+    private volatile int concurrency = 64;
+    private volatile NioProxyTester nioTester;
+    private volatile boolean adaptiveTimeout = false;
+    private volatile int minTimeout = 1000;
+    private volatile NioProxyTester prober;
+    private volatile int prescanTimeout = 3000;
+    private volatile int prescanConcurrency = 1000;
+    private volatile int retryBackoff = 1000;
+    private volatile ResultCache cache;
+    private volatile long cacheTtl = 60 * 60 * 1000;
+    private volatile ConnectionGovernor governor;
+    private volatile String socksUser;
+    private volatile String socksPassword;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService retryScheduler;
+    private ExecutorService finishedExecutor;
+    private int workers = 0;
+    /**
+     * Incremented by abort, workers, probes and attempts started before abort don't go on with the run
+     */
+    private volatile int generation = 0;
+    private int probing = 0;
+    /**
+     * Servers taken by workers and waiting for host lookup
+     */
+    private int resolving = 0;
+    private boolean pumping = false;
+    private boolean pumpAgain = false;
+
+    /**
+     * @param listener - test run events listener
+     */
+    TestRunner(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Creates executor for worker tasks
+     * @return virtual thread per task executor on Java 21+, cached thread pool otherwise
+     */
+    static ExecutorService newWorkerExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue servers and start run, or add workers to the active run up to the concurrency limit
+     * @param keys - keys of servers to test
+     */
+    void submit(long... keys) {
+        if (prober != null) {
+            if (keys.length > 0) {
+                prescanQueue.add(new Batch(keys, false));
+            }
+            pumpProbes();
+            return;
+        }
+        if (keys.length > 0) {
+            queue.add(new Batch(keys, false));
+        }
+        startWorkers();
+    }
+
+    private synchronized void startWorkers() {
+        if (executor == null) {
+            executor = newWorkerExecutor();
+        }
+        statistics.setConcurrency(concurrency);
+        int generation = this.generation;
+        while (workers < concurrency) {
+            workers++;
+            executor.execute(() -> work(generation));
+        }
+    }
+
+    /**
+     * Drain queues and report drained servers as cancelled,
+     * servers started by pre-scan and waiting for retry are reported as tested with cancelled status.
+     * Attempts in flight are cut and reported as tested with cancelled status, probes in flight are cancelled.
+     * Workers of the aborted run are released from the run at once, they exit when their attempts are cut
+     */
+    void abort() {
+        synchronized (this) {
+            generation++;
+            if (executor != null) {
+                executor.shutdown();
+                finishedExecutor = executor;
+                executor = null;
+            }
+            workers = 0;
+            probing = 0;
+            resolving = 0;
+        }
+        for (Attempt attempt : running) {
+            attempt.cancel();
+        }
+        for (CompletableFuture<?> probe : probes) {
+            probe.cancel(false);
+        }
+        for (CompletableFuture<?> lookup : lookups) {
+            lookup.cancel(false);
+        }
+        Retry retry;
+        while ((retry = pollRetry(Long.MAX_VALUE)) != null) {
+            retry.status.setStatusValue(ServerStatus.Status.CANCELLED);
+            listener.tested(retry.key, retry.status);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        Batch batch;
+        while ((batch = prescanQueue.poll()) != null) {
+            for (int i = batch.next.getAndSet(batch.keys.length); i < batch.keys.length; i++) {
+                listener.cancelled(batch.keys[i]);
+            }
+        }
+        while ((batch = queue.poll()) != null) {
+            for (int i = batch.next.getAndSet(batch.keys.length); i < batch.keys.length; i++) {
+                if (batch.started) {
+                    listener.tested(batch.keys[i], new ServerStatus(ServerStatus.Status.CANCELLED));
+                } else {
+                    listener.cancelled(batch.keys[i]);
+                }
+            }
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return workers > 0 || probing > 0 || resolving > 0 || !prescanQueue.isEmpty() || !retries.isEmpty();
+    }
+
+    /**
+     * Start probes of pre-scan queue up to pre-scan concurrency.
+     * Only one thread pumps at a time, so probes completed right away don't recurse
+     */
+    private void pumpProbes() {
+        synchronized (this) {
+            if (pumping) {
+                pumpAgain = true;
+                return;
+            }
+            pumping = true;
+        }
+        while (true) {
+            long key;
+            int generation;
+            synchronized (this) {
+                generation = this.generation;
+                key = (probing < prescanConcurrency) ? take(prescanQueue) : -1;
+                if (key < 0) {
+                    if (pumpAgain) {
+                        pumpAgain = false;
+                        continue;
+                    }
+                    pumping = false;
+                    return;
+                }
+                probing++;
+            }
+            ServerStatus cached = cached(key);
+            if (cached != null) {
+                if (listener.starting(key)) {
+                    listener.tested(key, cached);
+                }
+                probeDone(generation);
+                continue;
+            }
+            String host = ServerKey.host(key);
+            if (!ServerKey.isHost(key)) {
+                probe(key, host, generation);
+                continue;
+            }
+            if (host == null) {
+                // server is removed, its host is released
+                probeDone(generation);
+                continue;
+            }
+            InetAddress address = resolver.getCached(host);
+            if (address != null) {
+                probe(key, address.getHostAddress(), generation);
+                continue;
+            }
+            // its cancel doesn't cancel the lookup shared with other servers
+            CompletableFuture<InetAddress> lookup = resolver.resolve(host);
+            probes.add(lookup);
+            lookup.whenComplete((resolved, error) -> {
+                probes.remove(lookup);
+                if (error == null) {
+                    probe(key, resolved.getHostAddress(), generation);
+                } else {
+                    probed(key, error, generation);
+                }
+            });
+        }
+    }
+
+    /**
+     * Start probe of server, it is counted as probing already
+     * @param ip - address literal of server
+     */
+    private void probe(long key, String ip, int generation) {
+        CompletableFuture<NioProxyTester.Result> probe = prober.probe(ip, ServerKey.port(key), prescanTimeout);
+        probes.add(probe);
+        probe.whenComplete((result, error) -> {
+            probes.remove(probe);
+            probed(key, error, generation);
+        });
+    }
+
+    /**
+     * Queue reachable server for test, report unreachable one as failed,
+     * server probed before abort is reported as cancelled
+     * @param error - probe error, null if server is reachable
+     * @param generation - run generation when the probe was started
+     */
+    private void probed(long key, Throwable error, int generation) {
+        try {
+            if (generation != this.generation) {
+                listener.cancelled(key);
+            } else if (listener.starting(key)) {
+                if (error == null) {
+                    statistics.recordProbe(true);
+                    queue.add(new Batch(new long[]{key}, true));
+                    startWorkers();
+                } else {
+                    statistics.recordProbe(false);
+                    if (error instanceof CompletionException && error.getCause() != null) {
+                        error = error.getCause();
+                    }
+                    ServerStatus status = new ServerStatus();
+                    status.setAttempt(1);
+                    status.setFail(((error instanceof UnknownHostException) ? "Unknown host: " : "Unreachable: ") +
+                            error.getMessage());
+                    tested(key, status);
+                }
+            }
+        } finally {
+            probeDone(generation);
+            pumpProbes();
+        }
+    }
+
+    /**
+     * @param generation - run generation when the probe was started, probes of aborted run are not counted
+     */
+    private synchronized void probeDone(int generation) {
+        if (generation == this.generation && --probing == 0 && workers == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the run end and its executor shutdown, after abort it waits for workers of the aborted run
+     */
+    void join() throws InterruptedException {
+        ExecutorService service;
+        synchronized (this) {
+            while (workers > 0 || probing > 0 || resolving > 0 || !prescanQueue.isEmpty() || !retries.isEmpty()) {
+                wait();
+            }
+            service = finishedExecutor;
+        }
+        if (service != null) {
+            service.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Worker task, exits only when queue is empty and no retry is due under runner lock,
+     * so servers queued by concurrent start() are never left behind, or when run is aborted.
+     * Retries which are not due yet start workers again by schedule
+     * @param generation - run generation when the worker was started
+     */
+    private void work(int generation) {
+        boolean done = false;
+        try {
+            while (!done && generation == this.generation) {
+                Retry retry;
+                Batch batch;
+                if ((retry = pollRetry(now())) != null) {
+                    test(retry.key, retry.status, retry.localErrors, generation);
+                } else if ((batch = queue.peek()) != null) {
+                    long key = batch.take();
+                    if (key < 0) {
+                        queue.remove(batch);
+                    } else if (batch.started || listener.starting(key)) {
+                        ServerStatus cached = cached(key);
+                        if (cached != null) {
+                            listener.tested(key, cached);
+                        } else {
+                            test(key, new ServerStatus(ServerStatus.Status.TESTING, 0, null, 1), 0, generation);
+                        }
+                    }
+                } else {
+                    synchronized (this) {
+                        done = queue.isEmpty() && (retries.isEmpty() || retries.peek().due > now());
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                // workers of aborted run are not counted already
+                if (generation == this.generation && --workers == 0) {
+                    executor.shutdown();
+                    finishedExecutor = executor;
+                    executor = null;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return key of next server in queue, -1 when queue is empty
+     */
+    private static long take(ConcurrentLinkedQueue<Batch> queue) {
+        Batch batch;
+        while ((batch = queue.peek()) != null) {
+            long key = batch.take();
+            if (key >= 0) {
+                return key;
+            }
+            queue.remove(batch);
+        }
+        return -1;
+    }
+
+    /**
+     * @return result from cache tested within cache TTL, null if there is none
+     */
+    private ServerStatus cached(long key) {
+        ResultCache cache = this.cache;
+        ServerStatus status = (cache != null) ? cache.get(key, cacheTtl) : null;
+        if (status != null) {
+            statistics.recordCacheHit();
+        }
+        return status;
+    }
+
+    /**
+     * Store result to cache and report server as tested
+     */
+    private void tested(long key, ServerStatus status) {
+        statistics.recordResult(status);
+        ResultCache cache = this.cache;
+        if (cache != null) {
+            try {
+                cache.put(key, status);
+            } catch (IOException ignored) {
+                // result is still reported, only its persistence is lost
+            }
+        }
+        listener.tested(key, status);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * @param due - latest eligible time, ms of {@link System#nanoTime()}
+     * @return the earliest retry eligible by due time, null if there is none
+     */
+    private synchronized Retry pollRetry(long due) {
+        Retry retry = retries.peek();
+        return (retry != null && retry.due <= due) ? retries.poll() : null;
+    }
+
+    /**
+     * Queue server for its next attempt, workers are started when it is due
+     * @param status - fail status of the attempt
+     * @param generation - run generation when the attempt was started
+     * @param localErrors - attempts repeated for local socket errors, the attempt is repeated when it is not 0
+     * @return false if run was aborted since the attempt start
+     */
+    private boolean scheduleRetry(long key, ServerStatus status, int generation, int localErrors) {
+        int backoff = (int) Math.min(MAX_RETRY_BACKOFF,
+                (long) retryBackoff << Math.min(status.getAttempt() - 1 + localErrors, 16));
+        ServerStatus next = new ServerStatus(ServerStatus.Status.QUEUED, 0, status.getErrorMessage(),
+                (localErrors > 0) ? status.getAttempt() : status.getAttempt() + 1);
+        listener.changed(key, next);
+        synchronized (this) {
+            if (generation != this.generation) {
+                return false;
+            }
+            retries.add(new Retry(key, next, now() + backoff, localErrors));
+            if (retryScheduler == null) {
+                retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "Retry scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            retryScheduler.schedule(this::startWorkers, backoff, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Make one attempt, server failed by timeout or connect error is queued for retry
+     * while attempts are left, otherwise it is tested. Attempt cut by abort is tested with cancelled status
+     * @param status - status with the number of this attempt
+     * @param localErrors - times this attempt was repeated for local socket errors
+     * @param generation - run generation when the worker was started
+     */
+    private void test(long key, ServerStatus status, int localErrors, int generation) {
+        SocketAddressEx address = address(key);
+        if (address == null) {
+            resolve(key, ServerKey.host(key), status, localErrors, generation);
+            return;
+        }
+        String host = targetHost;
+        InetAddress targetAddress = null;
+        if (ServerKey.type(key) == ProxyType.SOCKS4 && !host.isEmpty()) {
+            // SOCKS4 server can't resolve target, it is resolved by the shared resolver as proxy hosts are
+            targetAddress = resolver.getCached(host);
+            if (targetAddress == null) {
+                resolve(key, host, status, localErrors, generation);
+                return;
+            }
+        }
+        ProxyType type = ServerKey.toProxyType(key);
+        NioProxyTester nioTest = nioTester;
+        ConnectionGovernor governor = this.governor;
+        int timeout = this.timeout;
+        Attempt attempt = new Attempt();
+        running.add(attempt);
+        if (generation != this.generation) {
+            // server was taken right before abort
+            attempt.cancel();
+        }
+        Exception error = null;
+        boolean acquired = false;
+        int attemptTimeout = 0;
+        try {
+            if (governor != null) {
+                governor.acquire(host);
+            }
+            acquired = true;
+            inFlight.increment();
+            attemptTimeout = getAttemptTimeout();
+            status.setStatusValue(ServerStatus.Status.TESTING);
+            listener.changed(key, status);
+            long attemptStart = System.nanoTime();
+            if (nioTest != null) {
+                CompletableFuture<NioProxyTester.Result> future = nioTest.test(address, type, url, targetAddress, attemptTimeout);
+                attempt.started(() -> future.cancel(false));
+                NioProxyTester.Result result = NioProxyTester.await(future);
+                statistics.record(result.getTimings());
+                status.setOk(result.getPing());
+            } else {
+                ProxyTester proxyTest = new ProxyTester(address, type);
+                proxyTest.setTimeout(attemptTimeout);
+                proxyTest.setSocksCredentials(socksUser, socksPassword);
+                proxyTest.setTargetAddress(targetAddress);
+                attempt.started(proxyTest::cancel);
+                proxyTest.syncTest(url);
+                statistics.record(proxyTest.getTimings());
+                status.setOk(proxyTest.getPing());
+            }
+            statistics.recordAttempt((int) ((System.nanoTime() - attemptStart) / 1000000));
+        } catch (InterruptedException |
+                ProxyTester.ProxyTestUrlException |
+                ProxyTester.ProxyTestWrongSettingsException |
+                ProxyTester.ProxyTestUnexpectedException |
+                ProxyTester.ProxyTestTimeoutException |
+                ProxyTester.ProxyTestConnectException e) {
+            error = e;
+        } finally {
+            attempt.finish();
+            running.remove(attempt);
+            if (acquired) {
+                inFlight.decrement();
+                if (governor != null) {
+                    governor.release(host);
+                }
+            }
+        }
+        if (error == null) {
+            tested(key, status);
+            return;
+        }
+        if (attempt.isCancelled()) {
+            status.setStatusValue(ServerStatus.Status.CANCELLED);
+            listener.tested(key, status);
+            return;
+        }
+        statistics.recordError(error);
+        status.setFail(error.getMessage());
+        boolean retry = false;
+        boolean localError = false;
+        if (error instanceof ProxyTester.ProxyTestTimeoutException) {
+            if (attemptTimeout < timeout) {
+                statistics.recordCut(timeout - attemptTimeout);
+            }
+            retry = true;
+        } else if (error instanceof ProxyTester.ProxyTestLocalException) {
+            statistics.recordLocalError();
+            if (governor != null) {
+                governor.throttle();
+            }
+            retry = true;
+            localError = localErrors < MAX_LOCAL_ERRORS;
+        } else if (error instanceof ProxyTester.ProxyTestConnectException) {
+            retry = true;
+        }
+        if (localError) {
+            if (!scheduleRetry(key, status, generation, localErrors + 1)) {
+                tested(key, status);
+            }
+        } else if (!retry || status.getAttempt() >= attempts || !scheduleRetry(key, status, generation, 0)) {
+            tested(key, status);
+        }
+    }
+
+    /**
+     * @return address of server for tester, host name is replaced by its cached address,
+     * null if host is not resolved yet
+     */
+    private SocketAddressEx address(long key) {
+        if (!ServerKey.isHost(key)) {
+            return ServerKey.toAddress(key);
+        }
+        InetAddress address = resolver.getCached(ServerKey.host(key));
+        return (address != null) ? new SocketAddressEx(address.getHostAddress(), ServerKey.port(key)) : null;
+    }
+
+    /**
+     * Hand server to resolver, worker goes on with other servers.
+     * Resolved server is queued for this attempt as due retry, server with unknown host is tested as failed
+     * @param host - host of server, or target host of SOCKS4 server
+     * @param status - status with the number of the attempt
+     * @param generation - run generation when the worker was started
+     */
+    private void resolve(long key, String host, ServerStatus status, int localErrors, int generation) {
+        boolean current;
+        synchronized (this) {
+            current = generation == this.generation;
+            if (current) {
+                resolving++;
+            }
+        }
+        if (!current) {
+            status.setStatusValue(ServerStatus.Status.CANCELLED);
+            listener.tested(key, status);
+            return;
+        }
+        // its cancel doesn't cancel the lookup shared with other servers
+        CompletableFuture<InetAddress> lookup = resolver.resolve(host);
+        lookups.add(lookup);
+        lookup.whenComplete((address, error) -> {
+            lookups.remove(lookup);
+            resolved(key, status, localErrors, error, generation);
+        });
+    }
+
+    /**
+     * @param error - lookup error, null if host is resolved
+     * @param generation - run generation when the lookup was started
+     */
+    private void resolved(long key, ServerStatus status, int localErrors, Throwable error, int generation) {
+        try {
+            boolean queued = false;
+            if (error == null) {
+                synchronized (this) {
+                    if (generation == this.generation) {
+                        retries.add(new Retry(key, status, now(), localErrors));
+                        queued = true;
+                    }
+                }
+            }
+            if (queued) {
+                startWorkers();
+            } else if (generation != this.generation) {
+                status.setStatusValue(ServerStatus.Status.CANCELLED);
+                listener.tested(key, status);
+            } else {
+                if (error instanceof CompletionException && error.getCause() != null) {
+                    error = error.getCause();
+                }
+                status.setFail("Unknown host: " + error.getMessage());
+                tested(key, status);
+            }
+        } finally {
+            synchronized (this) {
+                if (generation == this.generation && --resolving == 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adaptive timeout is learned from successful attempts of the run:
+     * high percentile of their durations with margin, within minimal and set timeout
+     * @return timeout of next attempt, ms
+     */
+    int getAttemptTimeout() {
+        int timeout = this.timeout;
+        if (!adaptiveTimeout || statistics.getAttemptHistogram().getCount() < ADAPTIVE_MIN_SAMPLES) {
+            return timeout;
+        }
+        int learned = (int) Math.min(timeout,
+                statistics.getAttemptHistogram().getPercentile(ADAPTIVE_PERCENTILE) * ADAPTIVE_MARGIN);
+        return Math.max(Math.min(minTimeout, timeout), learned);
+    }
+
+    /**
+     * @return attempts in progress
+     */
+    long getInFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * @return servers waiting in queues for pre-scan, host lookup, test or retry
+     */
+    long getQueued() {
+        long res = 0;
+        for (ConcurrentLinkedQueue<Batch> queue : Arrays.asList(prescanQueue, queue)) {
+            for (Batch batch : queue) {
+                res += Math.max(0, batch.keys.length - batch.next.get());
+            }
+        }
+        synchronized (this) {
+            return res + resolving + retries.size();
+        }
+    }
+
+    /**
+     * @return phase latency statistics of passed tests, kept until reset
+     */
+    RunStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+        try {
+            this.targetHost = new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            this.targetHost = "";
+        }
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @param timeout - attempt timeout, ms
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param adaptiveTimeout - cut attempts at timeout learned from successful attempts,
+     *                        set timeout is the upper bound
+     */
+    public void setAdaptiveTimeout(boolean adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
+    /**
+     * @param minTimeout - lower bound of adaptive timeout, ms
+     */
+    public void setMinTimeout(int minTimeout) {
+        this.minTimeout = minTimeout;
+    }
+
+    /**
+     * @param prober - engine of TCP pre-scan probes, or null to test servers without pre-scan
+     */
+    public void setProber(NioProxyTester prober) {
+        this.prober = prober;
+    }
+
+    /**
+     * @param prescanTimeout - pre-scan connect timeout, ms
+     */
+    public void setPrescanTimeout(int prescanTimeout) {
+        this.prescanTimeout = prescanTimeout;
+    }
+
+    /**
+     * @param prescanConcurrency - pre-scan probes in flight
+     */
+    public void setPrescanConcurrency(int prescanConcurrency) {
+        this.prescanConcurrency = prescanConcurrency;
+    }
+
+    /**
+     * @param retryBackoff - delay before the second attempt, ms, it doubles with every next attempt
+     */
+    public void setRetryBackoff(int retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * @param governor - limits of connection rate and tests in flight per target host, or null for no limits
+     */
+    public void setGovernor(ConnectionGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Credentials of tests by ProxyTester, non-blocking engine has its own
+     * @param user - user name of SOCKS5 authentication and SOCKS4 user id, or null
+     * @param password - SOCKS5 password
+     */
+    public void setSocksCredentials(String user, String password) {
+        this.socksUser = user;
+        this.socksPassword = password;
+    }
+
+    /**
+     * @param cache - cache of results, or null to test all servers
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param cacheTtl - lifetime of cached result, ms
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    /**
+     * @param nioTester - non-blocking engine, or null to test with ProxyTester
+     */
+    public void setNioTester(NioProxyTester nioTester) {
+        this.nioTester = nioTester;
+    }
+}
@@ -0,0 +1,96 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Min-heap of long keys by due time, without per-entry objects.
+ * Keys are not checked for duplicates. Not thread safe.
+ */
+public class DueQueue {
+    private long[] dues;
+    private long[] keys;
+    private int size = 0;
+
+    public DueQueue(int capacity) {
+        dues = new long[Math.max(4, capacity)];
+        keys = new long[dues.length];
+    }
+
+    public DueQueue() {
+        this(16);
+    }
+
+    public void add(long key, long due) {
+        if (size == keys.length) {
+            dues = Arrays.copyOf(dues, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        // sift up
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (dues[parent] <= due) {
+                break;
+            }
+            dues[i] = dues[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        dues[i] = due;
+        keys[i] = key;
+    }
+
+    /**
+     * @return the earliest due time, Long.MAX_VALUE when queue is empty
+     */
+    public long peekDue() {
+        return (size > 0) ? dues[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Remove key with the earliest due time
+     * @return removed key
+     * @throws IllegalStateException when queue is empty
+     */
+    public long poll() {
+        if (size == 0) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        long res = keys[0];
+        size--;
+        long due = dues[size];
+        long key = keys[size];
+        // sift down the last entry from the root
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && dues[child + 1] < dues[child]) {
+                child++;
+            }
+            if (due <= dues[child]) {
+                break;
+            }
+            dues[i] = dues[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        dues[i] = due;
+        keys[i] = key;
+        return res;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
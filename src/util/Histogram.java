@@ -0,0 +1,87 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative int values with log-linear buckets:
+ * values below 16 are exact, larger ones fall into 16 buckets per power of two (error under 7%).
+ * Can be recorded from any thread.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB_COUNT + (31 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private static int bucket(int value) {
+        if (value < SUB_COUNT) {
+            return value;
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        int sub = (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return middle value of bucket
+     */
+    private static int bucketValue(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_COUNT) / SUB_COUNT;
+        int sub = (bucket - SUB_COUNT) % SUB_COUNT;
+        long lower = (long) (SUB_COUNT + sub) << shift;
+        long width = 1L << shift;
+        return (int) Math.min(Integer.MAX_VALUE, lower + (width - 1) / 2);
+    }
+
+    /**
+     * @param value - recorded value, negative values are ignored
+     */
+    public void record(int value) {
+        if (value >= 0) {
+            counts.incrementAndGet(bucket(value));
+        }
+    }
+
+    public long getCount() {
+        long res = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            res += counts.get(i);
+        }
+        return res;
+    }
+
+    /**
+     * @param percentile - percentile, 0..100
+     * @return value at percentile, -1 when histogram is empty
+     */
+    public int getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return bucketValue(i);
+            }
+        }
+        return bucketValue(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+}
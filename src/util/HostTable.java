@@ -0,0 +1,78 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Host names and IPv6 literals of server keys (see {@link ServerKey}) by id, ids are registered on first use.
+ * Every {@link #id} call takes a reference of the host, host is dropped when all of its references are released,
+ * so the table holds hosts of servers kept by their owners only. Ids are not reused and valid within
+ * the process only. Thread safe, lookups of different hosts don't block each other.
+ */
+public class HostTable {
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Entry> entriesById = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private static class Entry {
+        final String name;
+        final int id;
+        /**
+         * Changed in map compute of the name only
+         */
+        int references;
+
+        Entry(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @param host - host name in lower case or IPv6 literal in brackets
+     * @return id of host, registered when host is used first time; caller holds a reference of it
+     */
+    public static int id(String host) {
+        return entries.compute(host, (name, entry) -> {
+            if (entry == null) {
+                entry = new Entry(name, nextId.getAndIncrement());
+                entriesById.put(entry.id, entry);
+            }
+            entry.references++;
+            return entry;
+        }).id;
+    }
+
+    /**
+     * Release reference taken by {@link #id}, host is dropped with its last reference
+     * @param id - host id, released ids are ignored
+     */
+    public static void release(int id) {
+        Entry entry = entriesById.get(id);
+        if (entry == null) {
+            return;
+        }
+        entries.computeIfPresent(entry.name, (name, current) -> {
+            if (current != entry || --current.references > 0) {
+                return current;
+            }
+            entriesById.remove(id);
+            return null;
+        });
+    }
+
+    /**
+     * @return host of id, null if id is released
+     */
+    public static String name(int id) {
+        Entry entry = entriesById.get(id);
+        return (entry != null) ? entry.name : null;
+    }
+
+    /**
+     * @return registered hosts count
+     */
+    public static int size() {
+        return entriesById.size();
+    }
+}
@@ -0,0 +1,295 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Order statistic tree of int ids 0..n-1 sorted by external comparator, without per-entry objects:
+ * treap in parallel arrays indexed by id, with parent links and subtree counts.
+ * Rank and select take O(log n) over all ids and over marked ids only, so a filtered view needs no scan.
+ * Id is removed by its node, not by search, so id whose sort value changed is moved by remove and add
+ * while the rest of the tree keeps its order.
+ * Not thread safe.
+ */
+public class OrderIndex {
+    private static final int NONE = -1;
+
+    /**
+     * Order of ids, ties must be broken so that distinct ids never compare equal
+     */
+    public interface IdComparator {
+        int compare(int a, int b);
+    }
+
+    private final Random random = new Random();
+    private IdComparator comparator;
+    private int root = NONE;
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] parent = new int[0];
+    private int[] priorities = new int[0];
+    private int[] sizes = new int[0];
+    private int[] markedSizes = new int[0];
+    private boolean[] marked = new boolean[0];
+    private boolean[] present = new boolean[0];
+
+    public OrderIndex(IdComparator comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Set order of ids, index must be empty
+     */
+    public void setComparator(IdComparator comparator) {
+        if (root != NONE) {
+            throw new IllegalStateException("Index is not empty");
+        }
+        this.comparator = comparator;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= present.length) {
+            return;
+        }
+        capacity = Math.max(capacity, present.length + (present.length >> 1) + 16);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        markedSizes = Arrays.copyOf(markedSizes, capacity);
+        marked = Arrays.copyOf(marked, capacity);
+        present = Arrays.copyOf(present, capacity);
+    }
+
+    /**
+     * @param id - id which is not in index
+     * @param mark - count id in marked ids
+     */
+    public void add(int id, boolean mark) {
+        ensureCapacity(id + 1);
+        if (present[id]) {
+            throw new IllegalArgumentException("Id " + id + " is in index already");
+        }
+        present[id] = true;
+        marked[id] = mark;
+        left[id] = NONE;
+        right[id] = NONE;
+        priorities[id] = random.nextInt();
+        sizes[id] = 1;
+        markedSizes[id] = mark ? 1 : 0;
+        if (root == NONE) {
+            root = id;
+            parent[id] = NONE;
+            return;
+        }
+        int node = root;
+        while (true) {
+            sizes[node]++;
+            markedSizes[node] += mark ? 1 : 0;
+            if (comparator.compare(id, node) < 0) {
+                if (left[node] == NONE) {
+                    left[node] = id;
+                    break;
+                }
+                node = left[node];
+            } else {
+                if (right[node] == NONE) {
+                    right[node] = id;
+                    break;
+                }
+                node = right[node];
+            }
+        }
+        parent[id] = node;
+        while (parent[id] != NONE && priorities[id] < priorities[parent[id]]) {
+            rotateUp(id);
+        }
+    }
+
+    /**
+     * Remove id, absent id is ignored
+     */
+    public void remove(int id) {
+        if (!contains(id)) {
+            return;
+        }
+        // rotate id down to leaf, subtree counts of ancestors don't change meanwhile
+        while (left[id] != NONE || right[id] != NONE) {
+            int child;
+            if (left[id] == NONE) {
+                child = right[id];
+            } else if (right[id] == NONE) {
+                child = left[id];
+            } else {
+                child = (priorities[left[id]] < priorities[right[id]]) ? left[id] : right[id];
+            }
+            rotateUp(child);
+        }
+        int node = parent[id];
+        if (node == NONE) {
+            root = NONE;
+        } else if (left[node] == id) {
+            left[node] = NONE;
+        } else {
+            right[node] = NONE;
+        }
+        for (; node != NONE; node = parent[node]) {
+            sizes[node]--;
+            markedSizes[node] -= marked[id] ? 1 : 0;
+        }
+        present[id] = false;
+    }
+
+    /**
+     * Move id to its place by current order, id which is not in index is added
+     */
+    public void update(int id, boolean mark) {
+        remove(id);
+        add(id, mark);
+    }
+
+    /**
+     * Rotate node above its parent
+     */
+    private void rotateUp(int node) {
+        int up = parent[node];
+        int grand = parent[up];
+        if (left[up] == node) {
+            left[up] = right[node];
+            if (right[node] != NONE) {
+                parent[right[node]] = up;
+            }
+            right[node] = up;
+        } else {
+            right[up] = left[node];
+            if (left[node] != NONE) {
+                parent[left[node]] = up;
+            }
+            left[node] = up;
+        }
+        parent[up] = node;
+        parent[node] = grand;
+        if (grand == NONE) {
+            root = node;
+        } else if (left[grand] == up) {
+            left[grand] = node;
+        } else {
+            right[grand] = node;
+        }
+        pull(up);
+        pull(node);
+    }
+
+    /**
+     * Recount subtree of node from its children
+     */
+    private void pull(int node) {
+        sizes[node] = 1 + count(left[node], false) + count(right[node], false);
+        markedSizes[node] = (marked[node] ? 1 : 0) + count(left[node], true) + count(right[node], true);
+    }
+
+    /**
+     * @return ids in subtree of node
+     */
+    private int count(int node, boolean marked) {
+        if (node == NONE) {
+            return 0;
+        }
+        return marked ? markedSizes[node] : sizes[node];
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < present.length && present[id];
+    }
+
+    /**
+     * @param marked - count marked ids only
+     */
+    public int size(boolean marked) {
+        return count(root, marked);
+    }
+
+    /**
+     * @param rank - position in order
+     * @param marked - position among marked ids only
+     * @return id at position
+     * @throws IndexOutOfBoundsException if position is out of index
+     */
+    public int get(int rank, boolean marked) {
+        if (rank < 0 || rank >= size(marked)) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " of " + size(marked));
+        }
+        int node = root;
+        while (true) {
+            int before = count(left[node], marked);
+            int self = (!marked || this.marked[node]) ? 1 : 0;
+            if (rank < before) {
+                node = left[node];
+            } else if (rank < before + self) {
+                return node;
+            } else {
+                rank -= before + self;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * @param marked - position among marked ids only
+     * @return position of id in order, -1 if id is not in index or not marked
+     */
+    public int rank(int id, boolean marked) {
+        if (!contains(id) || (marked && !this.marked[id])) {
+            return -1;
+        }
+        int res = count(left[id], marked);
+        for (int node = id; parent[node] != NONE; node = parent[node]) {
+            int up = parent[node];
+            if (right[up] == node) {
+                res += count(left[up], marked) + ((!marked || this.marked[up]) ? 1 : 0);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param marked - marked ids only
+     * @return ids in order
+     */
+    public int[] toArray(boolean marked) {
+        int[] res = new int[size(marked)];
+        int count = 0;
+        int node = root;
+        if (node != NONE) {
+            while (left[node] != NONE) {
+                node = left[node];
+            }
+        }
+        // in-order walk by parent links
+        while (node != NONE) {
+            if (!marked || this.marked[node]) {
+                res[count++] = node;
+            }
+            if (right[node] != NONE) {
+                node = right[node];
+                while (left[node] != NONE) {
+                    node = left[node];
+                }
+            } else {
+                int from = node;
+                node = parent[node];
+                while (node != NONE && right[node] == from) {
+                    from = node;
+                    node = parent[node];
+                }
+            }
+        }
+        return res;
+    }
+
+    public void clear() {
+        root = NONE;
+        Arrays.fill(present, false);
+    }
+}
@@ -0,0 +1,128 @@
+package util;
+
+import util.net.ProxyType;
+import util.net.SocketAddressEx;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Server identity {proxy type code, address, port} packed into non-negative long:
+ * type code in bits 48-55, address in bits 16-47, port in bits 0-15.
+ * Address is IPv4 address, or {@link HostTable} id of host name or IPv6 literal when {@link #HOST} bit is set.
+ * Host key holds a reference of its host, owner of the key releases it with {@link #release} when key is dropped
+ */
+public class ServerKey {
+    /**
+     * Address of key is host id
+     */
+    public static final long HOST = 1L << 56;
+
+    public static long of(byte type, int ip, int port) {
+        return ((long) (type & 0xFF) << 48) | ((ip & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+    }
+
+    /**
+     * @param host - host name or IPv6 literal, with or without brackets
+     * @return key of server, IPv4-mapped IPv6 literal gives IPv4 key,
+     * -1 when host is not valid or port is out of range
+     * @see #release
+     */
+    public static long of(byte type, String host, int port) {
+        if (port < 0 || port > 0xFFFF || host.isEmpty()) {
+            return -1;
+        }
+        if (host.indexOf(':') >= 0 || host.charAt(0) == '[') {
+            String literal = (host.charAt(0) == '[') ? host : "[" + host + "]";
+            InetAddress address;
+            try {
+                // bracketed literal is parsed without name lookup
+                address = InetAddress.getByName(literal);
+            } catch (UnknownHostException e) {
+                return -1;
+            }
+            if (address instanceof Inet4Address) {
+                byte[] ip = address.getAddress();
+                return of(type, ((ip[0] & 0xFF) << 24) | ((ip[1] & 0xFF) << 16) | ((ip[2] & 0xFF) << 8) | (ip[3] & 0xFF),
+                        port);
+            }
+            return HOST | of(type, HostTable.id("[" + address.getHostAddress() + "]"), port);
+        }
+        host = host.toLowerCase();
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_')) {
+                return -1;
+            }
+        }
+        return HOST | of(type, HostTable.id(host), port);
+    }
+
+    /**
+     * @return key of server, -1 when address is not valid or port is out of range
+     */
+    public static long of(ProxyType type, SocketAddressEx address) {
+        ServerScanner scanner = ServerParser.scan(address.getIp());
+        if (!scanner.hasAddress()) {
+            return of(type.getCode(), address.getIp(), address.getPort());
+        }
+        if (address.getPort() < 0 || address.getPort() > 0xFFFF) {
+            return -1;
+        }
+        return of(type.getCode(), scanner.getIp(), address.getPort());
+    }
+
+    /**
+     * Release host reference of host key, IPv4 key is ignored
+     */
+    public static void release(long key) {
+        if (key >= 0 && isHost(key)) {
+            HostTable.release(ip(key));
+        }
+    }
+
+    /**
+     * @return true if address of key is host name or IPv6 literal
+     */
+    public static boolean isHost(long key) {
+        return (key & HOST) != 0;
+    }
+
+    public static byte type(long key) {
+        return (byte) (key >>> 48);
+    }
+
+    /**
+     * @return IPv4 address, or host id of host key
+     */
+    public static int ip(long key) {
+        return (int) (key >>> 16);
+    }
+
+    /**
+     * @return dotted IPv4 address, host name or IPv6 literal in brackets, null if host of key is released
+     */
+    public static String host(long key) {
+        return isHost(key) ? HostTable.name(ip(key)) : ServerScanner.ipToString(ip(key));
+    }
+
+    public static int port(long key) {
+        return (int) (key & 0xFFFF);
+    }
+
+    public static ProxyType toProxyType(long key) {
+        return new ProxyType(type(key));
+    }
+
+    public static SocketAddressEx toAddress(long key) {
+        return new SocketAddressEx(host(key), port(key));
+    }
+
+    /**
+     * @return key in "type host:port" form
+     */
+    public static String toString(long key) {
+        return ProxyType.getName(type(key)) + " " + host(key) + ":" + port(key);
+    }
+}
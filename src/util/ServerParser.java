@@ -3,34 +3,54 @@ package util;
 import util.net.SocketAddressEx;
 import util.net.ProxyType;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class ServerParser {
-    private static Pattern ipv4pattern = Pattern.compile(
-            "((?:(?:(?:1\\d\\d|2[0-4]\\d|25[0-5])|[1-9]\\d|\\d)\\.){3}(?:(?:1\\d\\d|2[0-4]\\d|25[0-5])|[1-9]\\d|\\d))(?:\\W*|[:])?(\\d{1,5})?",
-            Pattern.CASE_INSENSITIVE);
+    private static ThreadLocal<ServerScanner> scanner = ThreadLocal.withInitial(ServerScanner::new);
 
-    public static ProxyType extractType(String line) {
-        Pattern patType = Pattern.compile("((https?)|(socks)|(ftp))", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = patType.matcher(line);
+    /**
+     * Scan line with scanner of current thread
+     * @param line - server description
+     * @return scanner with line data, valid until next scan in this thread
+     */
+    public static ServerScanner scan(CharSequence line) {
+        ServerScanner res = scanner.get();
+        res.scan(line);
+        return res;
+    }
 
-        if (matcher.find()) {
-            return new ProxyType(matcher.group(0));
+    /**
+     * Parse server identity
+     * @param line - server description
+     * @return server key, -1 when line has no proxy type or valid address
+     */
+    public static long parseKey(CharSequence line) {
+        ServerScanner res = scan(line);
+        if (res.getType() == ProxyType.NONE || res.getPort() > 0xFFFF) {
+            return -1;
+        }
+        if (res.hasAddress()) {
+            return ServerKey.of(res.getType(), res.getIp(), res.getPort());
+        }
+        return res.hasHost() ? ServerKey.of(res.getType(), res.getHost(), res.getPort()) : -1;
+    }
+
+    public static ProxyType extractType(String line) {
+        ServerScanner res = scan(line);
+        if (res.getType() != ProxyType.NONE) {
+            return new ProxyType(res.getType());
         }
         return null;
     }
 
     public static SocketAddressEx extractAddress(String line) {
-        Matcher matcher = ipv4pattern.matcher(line);
+        ServerScanner scanned = scan(line);
 
         SocketAddressEx res = new SocketAddressEx();
-        if (matcher.find()) {
-            res.setIp(matcher.group(1));
-            try {
-                res.setPort(Integer.parseInt(matcher.group(2)));
-            } catch (NumberFormatException ignore) {
-            }
+        if (scanned.hasAddress()) {
+            res.setIp(ServerScanner.ipToString(scanned.getIp()));
+            res.setPort(scanned.getPort());
+        } else if (scanned.hasHost()) {
+            res.setIp(scanned.getHost());
+            res.setPort(scanned.getPort());
         }
         return res;
     }
@@ -0,0 +1,348 @@
+package util;
+
+import util.net.ProxyType;
+
+/**
+ * Single pass scanner of server description line, allocation-free for IPv4 lines.
+ * Extracts proxy type code, IPv4 address packed into int and port.
+ * Accepted formats are the same as of former regular expressions:
+ * type is the first of "http", "https", "socks", "socks4", "socks4a", "socks5", "ftp" in any case,
+ * address is the first IPv4 literal, port is up to 5 digits after non-word characters.
+ * Line without IPv4 literal gives host instead: the first IPv6 literal in brackets or the first dotted
+ * host name whose last label starts with a letter, so version numbers are not taken for host names.
+ * Byte input is scanned as ISO-8859-1, so UTF-8 text gives the same results.
+ * Not thread safe, reuse one instance per thread.
+ */
+public class ServerScanner {
+    private final ByteChars byteChars = new ByteChars();
+    private byte type;
+    private boolean address;
+    private int ip;
+    private int port;
+    private String host;
+    /**
+     * Bounds and port of the first host candidate, hostFrom is -1 when there is no candidate
+     */
+    private int hostFrom;
+    private int hostTo;
+    private int hostPort;
+
+    /**
+     * Reusable char view of byte array
+     */
+    private static class ByteChars implements CharSequence {
+        private byte[] buf;
+        private int from;
+        private int length;
+
+        void set(byte[] buf, int from, int to) {
+            this.buf = buf;
+            this.from = from;
+            this.length = to - from;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, from, length, java.nio.charset.StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Scan line
+     * @param line - server description
+     * @return true if proxy type is found
+     */
+    public boolean scan(CharSequence line) {
+        type = ProxyType.NONE;
+        address = false;
+        ip = 0;
+        port = 0;
+        host = null;
+        hostFrom = -1;
+
+        int length = line.length();
+        for (int i = 0; i < length && (type == ProxyType.NONE || !address); i++) {
+            if (type == ProxyType.NONE) {
+                type = typeAt(line, i, length);
+            }
+            if (!address) {
+                address = addressAt(line, i, length);
+                if (!address && hostFrom < 0) {
+                    hostAt(line, i, length);
+                }
+            }
+        }
+        if (!address && hostFrom >= 0) {
+            host = new StringBuilder(hostTo - hostFrom).append(line, hostFrom, hostTo).toString();
+            port = hostPort;
+        }
+        return type != ProxyType.NONE;
+    }
+
+    /**
+     * Scan bytes of line
+     * @param buf - buffer
+     * @param from - line start index
+     * @param to - line end index, exclusive
+     * @return true if proxy type is found
+     */
+    public boolean scan(byte[] buf, int from, int to) {
+        byteChars.set(buf, from, to);
+        boolean res = scan(byteChars);
+        byteChars.set(null, 0, 0);
+        return res;
+    }
+
+    /**
+     * @return ProxyType type code, ProxyType.NONE if not found
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return true if IPv4 address is found
+     */
+    public boolean hasAddress() {
+        return address;
+    }
+
+    /**
+     * @return true if line has no IPv4 address but host name or IPv6 literal is found
+     */
+    public boolean hasHost() {
+        return host != null;
+    }
+
+    /**
+     * @return host name or IPv6 literal in brackets as written in line, null if not found
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return IPv4 address packed into int, first octet in high byte
+     */
+    public int getIp() {
+        return ip;
+    }
+
+    /**
+     * @return port, 0 if not found
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param ip - IPv4 address packed into int
+     * @return dotted IPv4 address
+     */
+    public static String ipToString(int ip) {
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    private static int lower(char c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+    private static boolean matches(CharSequence line, int i, int length, String word) {
+        if (length - i < word.length()) {
+            return false;
+        }
+        for (int j = 0; j < word.length(); j++) {
+            if (lower(line.charAt(i + j)) != word.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte typeAt(CharSequence line, int i, int length) {
+        switch (lower(line.charAt(i))) {
+            case 'h':
+                if (matches(line, i, length, "http")) {
+                    return (i + 4 < length && lower(line.charAt(i + 4)) == 's') ? ProxyType.HTTPS : ProxyType.HTTP;
+                }
+                break;
+            case 's':
+                if (matches(line, i, length, "socks")) {
+                    char version = (i + 5 < length) ? line.charAt(i + 5) : ' ';
+                    if (version == '5') {
+                        return ProxyType.SOCKS5;
+                    }
+                    if (version == '4') {
+                        return (i + 6 < length && lower(line.charAt(i + 6)) == 'a') ?
+                                ProxyType.SOCKS4A : ProxyType.SOCKS4;
+                    }
+                    return ProxyType.SOCKS;
+                }
+                break;
+            case 'f':
+                if (matches(line, i, length, "ftp")) {
+                    return ProxyType.FTP;
+                }
+                break;
+        }
+        return ProxyType.NONE;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+    }
+
+    /**
+     * Octet with three digits: 1xx, 20x-24x, 250-255
+     */
+    private static boolean isThreeDigitOctet(char d0, char d1, char d2) {
+        return d0 == '1' || (d0 == '2' && d1 <= '4') || (d0 == '2' && d1 == '5' && d2 <= '5');
+    }
+
+    /**
+     * Try to read address starting at i
+     * @return true if address is read
+     */
+    private boolean addressAt(CharSequence line, int i, int length) {
+        int value = 0;
+        int pos = i;
+
+        // first three octets: whole digit run without leading zero, followed by dot
+        for (int octet = 0; octet < 3; octet++) {
+            int run = 0;
+            while (pos + run < length && run < 4 && isDigit(line.charAt(pos + run))) {
+                run++;
+            }
+            if (run == 0 || run == 4 || pos + run >= length || line.charAt(pos + run) != '.') {
+                return false;
+            }
+            char d0 = line.charAt(pos);
+            if (run > 1 && d0 == '0') {
+                return false;
+            }
+            if (run == 3 && !isThreeDigitOctet(d0, line.charAt(pos + 1), line.charAt(pos + 2))) {
+                return false;
+            }
+            int octetValue = 0;
+            for (int j = 0; j < run; j++) {
+                octetValue = octetValue * 10 + (line.charAt(pos + j) - '0');
+            }
+            value = (value << 8) | octetValue;
+            pos += run + 1;
+        }
+
+        // last octet: longest valid prefix of digit run
+        int run = 0;
+        while (pos + run < length && run < 3 && isDigit(line.charAt(pos + run))) {
+            run++;
+        }
+        if (run == 0) {
+            return false;
+        }
+        char d0 = line.charAt(pos);
+        if (run == 3 && !isThreeDigitOctet(d0, line.charAt(pos + 1), line.charAt(pos + 2))) {
+            run = 2;
+        }
+        if (run == 2 && d0 == '0') {
+            run = 1;
+        }
+        int octetValue = 0;
+        for (int j = 0; j < run; j++) {
+            octetValue = octetValue * 10 + (line.charAt(pos + j) - '0');
+        }
+        ip = (value << 8) | octetValue;
+        port = portAt(line, pos + run, length);
+        return true;
+    }
+
+    /**
+     * @return port: up to 5 digits after non-word characters, 0 if not found
+     */
+    private static int portAt(CharSequence line, int pos, int length) {
+        while (pos < length && !isWord(line.charAt(pos))) {
+            pos++;
+        }
+        int res = 0;
+        for (int j = 0; j < 5 && pos < length && isDigit(line.charAt(pos)); j++, pos++) {
+            res = res * 10 + (line.charAt(pos) - '0');
+        }
+        return res;
+    }
+
+    private static boolean isHostChar(char c) {
+        return isWord(c) || c == '-' || c == '.';
+    }
+
+    /**
+     * Try to read host candidate starting at i, at word boundary only: IPv6 literal in brackets or dotted name
+     */
+    private void hostAt(CharSequence line, int i, int length) {
+        char c = line.charAt(i);
+        if (i > 0 && isHostChar(line.charAt(i - 1))) {
+            return;
+        }
+        int pos = i;
+        if (c == '[') {
+            int colons = 0;
+            pos++;
+            while (pos < length && (isWord(c = line.charAt(pos)) || c == ':' || c == '.' || c == '%')) {
+                colons += (c == ':') ? 1 : 0;
+                pos++;
+            }
+            if (pos == length || line.charAt(pos) != ']' || colons < 2) {
+                return;
+            }
+            pos++;
+        } else {
+            if (!isWord(c)) {
+                return;
+            }
+            int lastLabel = i;
+            while (pos < length && isHostChar(c = line.charAt(pos))) {
+                if (c == '.') {
+                    if (line.charAt(pos - 1) == '.') {
+                        return;
+                    }
+                    lastLabel = pos + 1;
+                }
+                pos++;
+            }
+            if (line.charAt(pos - 1) == '.') {
+                // dot ending a sentence
+                pos--;
+                lastLabel = i;
+                for (int j = pos - 1; j > i; j--) {
+                    if (line.charAt(j) == '.') {
+                        lastLabel = j + 1;
+                        break;
+                    }
+                }
+            }
+            if (lastLabel == i || lower(line.charAt(lastLabel)) < 'a' || lower(line.charAt(lastLabel)) > 'z') {
+                return;
+            }
+        }
+        hostFrom = i;
+        hostTo = pos;
+        hostPort = portAt(line, pos, length);
+    }
+}
@@ -0,0 +1,120 @@
+package util.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Global limits of test connections shared by all tests of a run:
+ * token bucket of new connections per second and limit of tests in flight per target host.
+ * When local ephemeral ports run out, connection rate is halved and restored step by step,
+ * so sweep slows down instead of failing every connect with BindException.
+ * Thread safe.
+ */
+public class ConnectionGovernor {
+    /**
+     * Throttled rate is doubled back after this time without new local errors, ns
+     */
+    private static final long RECOVERY = 5_000_000_000L;
+    /**
+     * Lowest fraction of the set rate when throttled
+     */
+    private static final double MIN_FACTOR = 1.0 / 64;
+    /**
+     * Errors within this time after throttling are caused by the same storm and don't throttle again, ns
+     */
+    private static final long THROTTLE_INTERVAL = 1_000_000_000L;
+
+    private final double rate;
+    private final int burst;
+    private final int hostLimit;
+    private final ConcurrentHashMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Time of next free connection token, ns of {@link System#nanoTime()}
+     */
+    private long nextFree = System.nanoTime();
+    private double factor = 1;
+    private long lastChange = System.nanoTime();
+
+    /**
+     * @param rate - new connections per second
+     * @param burst - connections allowed at once after idle time
+     * @param hostLimit - tests in flight per target host
+     */
+    public ConnectionGovernor(double rate, int burst, int hostLimit) {
+        if (rate <= 0 || burst < 1 || hostLimit < 1) {
+            throw new IllegalArgumentException("Rate, burst and host limit must be positive");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.hostLimit = hostLimit;
+    }
+
+    /**
+     * Reserve connection token
+     * @return delay until reserved token is due, ns
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        if (factor < 1 && now - lastChange > RECOVERY) {
+            factor = Math.min(1, factor * 2);
+            lastChange = now;
+        }
+        long interval = (long) (1e9 / (rate * factor));
+        // unused tokens are kept up to burst
+        nextFree = Math.max(nextFree, now - (burst - 1) * interval);
+        long delay = nextFree - now;
+        nextFree += interval;
+        return Math.max(0, delay);
+    }
+
+    /**
+     * Wait for target host slot and connection token
+     * @param host - target host
+     * @throws InterruptedException if waiting thread is interrupted, host slot is not taken then
+     */
+    public void acquire(String host) throws InterruptedException {
+        Semaphore semaphore = hosts.computeIfAbsent(host, h -> new Semaphore(hostLimit));
+        semaphore.acquire();
+        long delay = reserve();
+        long end = System.nanoTime() + delay;
+        while (delay > 0) {
+            LockSupport.parkNanos(delay);
+            if (Thread.interrupted()) {
+                semaphore.release();
+                throw new InterruptedException();
+            }
+            delay = end - System.nanoTime();
+        }
+    }
+
+    /**
+     * Release target host slot taken by {@link #acquire(String)}
+     */
+    public void release(String host) {
+        Semaphore semaphore = hosts.get(host);
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Halve connection rate after local socket error, like exhausted ephemeral ports
+     */
+    public synchronized void throttle() {
+        long now = System.nanoTime();
+        if (factor < 1 && now - lastChange < THROTTLE_INTERVAL) {
+            return;
+        }
+        factor = Math.max(MIN_FACTOR, factor / 2);
+        lastChange = now;
+    }
+
+    /**
+     * @return current connection rate, per second
+     */
+    public synchronized double getRate() {
+        return rate * factor;
+    }
+}
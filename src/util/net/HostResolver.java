@@ -0,0 +1,204 @@
+package util.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolver of server host names with in-memory cache shared by all its users.
+ * Lookups run on a bounded pool of its own daemon threads, idle ones exit, so callers don't wait for DNS,
+ * concurrent lookups of one name share a single lookup. Queued lookup is dropped when all its callers
+ * cancel their futures, so the lookup queue holds hosts somebody waits for only.
+ * InetAddress gives no TTL of DNS records, so entries live as long as in the JDK address cache:
+ * security properties "networkaddress.cache.ttl" and "networkaddress.cache.negative.ttl", 30 and 10 s by default,
+ * -1 keeps entries forever. Expired entries are swept by resolve calls once in the shorter TTL.
+ * IPv6 literals in brackets are parsed at once without lookup.
+ * Thread safe.
+ */
+public class HostResolver {
+    private static final int DEFAULT_TTL = 30;
+    private static final int DEFAULT_NEGATIVE_TTL = 10;
+    /**
+     * Lower bound of entry lifetime, so resolved address reaches the test which waited for it, ms
+     */
+    private static final long MIN_TTL = 1000;
+    /**
+     * Idle lookup threads exit after this time, s
+     */
+    private static final int KEEP_ALIVE = 30;
+
+    private static class Entry {
+        private final CompletableFuture<InetAddress> future = new CompletableFuture<>();
+        /**
+         * Expiration time, ms of {@link System#nanoTime()}, set before future is complete
+         */
+        private volatile long expires = Long.MAX_VALUE;
+        /**
+         * Callers waiting for lookup, changed in map compute of the host only
+         */
+        private int waiters;
+        /**
+         * Queued lookup, null for lookup done at once
+         */
+        private volatile FutureTask<?> task;
+
+        boolean isExpired(long now) {
+            return future.isDone() && expires <= now;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final long ttl = readTtl("networkaddress.cache.ttl", DEFAULT_TTL);
+    private final long negativeTtl = readTtl("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL);
+    /**
+     * Time of the next sweep of expired entries, ms of {@link System#nanoTime()}
+     */
+    private final AtomicLong nextSweep = new AtomicLong(expiry(Math.min(ttl, negativeTtl)));
+    /**
+     * Dropped lookups left in the executor queue, they are purged when they make half of the queue
+     */
+    private final AtomicInteger droppedLookups = new AtomicInteger();
+
+    /**
+     * @param concurrency - lookups in flight
+     */
+    public HostResolver(int concurrency) {
+        executor = new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "Host resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return TTL of security property, ms, Long.MAX_VALUE for -1
+     */
+    private static long readTtl(String property, int defaultTtl) {
+        int seconds = defaultTtl;
+        try {
+            String value = Security.getProperty(property);
+            if (value != null) {
+                seconds = Integer.parseInt(value.trim());
+            }
+        } catch (NumberFormatException | SecurityException ignored) {
+        }
+        return (seconds < 0) ? Long.MAX_VALUE : Math.max(MIN_TTL, seconds * 1000L);
+    }
+
+    /**
+     * Resolve host, cached address is returned when its entry is not expired
+     * @param host - host name in lower case or IPv6 literal in brackets
+     * @return future of host address, it fails with UnknownHostException if host is not found.
+     * Cancel of the future doesn't cancel the lookup shared with other callers
+     */
+    public CompletableFuture<InetAddress> resolve(String host) {
+        long now = now();
+        sweep(now);
+        Entry entry = cache.get(host);
+        if (entry != null && entry.future.isDone() && !entry.isExpired(now)) {
+            return entry.future;
+        }
+        Entry created = new Entry();
+        entry = cache.compute(host, (h, old) -> {
+            Entry res = (old != null && !old.isExpired(now)) ? old : created;
+            res.waiters++;
+            return res;
+        });
+        if (entry == created) {
+            if (host.startsWith("[")) {
+                lookup(host, created);
+            } else {
+                created.task = new FutureTask<>(() -> lookup(host, created), null);
+                executor.execute(created.task);
+            }
+        }
+        Entry waited = entry;
+        CompletableFuture<InetAddress> res = entry.future.thenApply(address -> address);
+        res.whenComplete((address, error) -> {
+            if (res.isCancelled()) {
+                cancelled(host, waited);
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Caller stopped waiting for lookup, lookup which nobody waits for is dropped when it is not started yet
+     */
+    private void cancelled(String host, Entry entry) {
+        boolean[] dropped = {false};
+        cache.computeIfPresent(host, (h, current) -> {
+            if (current != entry || --current.waiters > 0 || current.future.isDone()) {
+                return current;
+            }
+            dropped[0] = true;
+            return null;
+        });
+        FutureTask<?> task = entry.task;
+        if (dropped[0] && task != null && task.cancel(false)
+                && droppedLookups.incrementAndGet() > executor.getQueue().size() / 2) {
+            droppedLookups.set(0);
+            executor.purge();
+        }
+    }
+
+    /**
+     * Remove expired entries once in the shorter TTL
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, expiry(Math.min(ttl, negativeTtl)))) {
+            return;
+        }
+        cache.values().removeIf(entry -> entry.isExpired(now));
+    }
+
+    /**
+     * @return cached address of host, null if host is not resolved, not found or its entry is expired
+     */
+    public InetAddress getCached(String host) {
+        Entry entry = cache.get(host);
+        if (entry == null || entry.isExpired(now()) || entry.future.isCompletedExceptionally()) {
+            return null;
+        }
+        return entry.future.getNow(null);
+    }
+
+    private void lookup(String host, Entry entry) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            entry.expires = expiry(ttl);
+            entry.future.complete(address);
+        } catch (UnknownHostException | RuntimeException e) {
+            entry.expires = expiry(negativeTtl);
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    private static long expiry(long ttl) {
+        return (ttl == Long.MAX_VALUE) ? Long.MAX_VALUE : now() + ttl;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * @return number of cached hosts and lookups in flight, expired entries are not counted
+     */
+    public int size() {
+        long now = now();
+        return (int) cache.values().stream().filter(entry -> !entry.isExpired(now)).count();
+    }
+}
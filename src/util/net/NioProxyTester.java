@@ -0,0 +1,1021 @@
+package util.net;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking proxy test engine.
+ * Speaks HTTP proxy and SOCKS handshakes (see {@link SocksClient}) by itself on a few selector threads,
+ * so thousands of tests can be in flight without a thread per test.
+ * Reports the same result as ProxyTester: ping and phase timings on pass, ProxyTester exceptions on fail.
+ * For https targets the test passes once the proxy has opened the tunnel, TLS is not negotiated.
+ * For http targets the response body is read to the end, a test with 200 status passes
+ * even if the body is not complete, without total time then.
+ * Timeout bounds connect and each read until response headers, and the whole body after them.
+ * With keep-alive, connections of http tests are kept open after the response,
+ * and the next test of the same proxy and target host reuses them without connect and handshake.
+ * Tests of one proxy run on the same selector thread, which owns its idle connections.
+ * Plain "socks" servers get sequential SOCKS5 handshake, servers of known SOCKS version get pipelined one.
+ */
+public class NioProxyTester implements Closeable {
+    private static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/76.0.3809.87 Safari/537.36";
+    private static final int MAX_RESPONSE_LINE = 8 * 1024;
+    private static final int MAX_RESPONSE_HEADERS = 16 * 1024;
+    /**
+     * Idle connection is closed after this time, ms
+     */
+    private static final int IDLE_TIMEOUT = 30 * 1000;
+    /**
+     * Idle connections limit of selector thread
+     */
+    private static final int MAX_IDLE = 1024;
+
+    private static final int CHUNK_SIZE = 0;
+    private static final int CHUNK_EXTENSION = 1;
+    private static final int CHUNK_DATA = 2;
+    private static final int CHUNK_DATA_END = 3;
+    private static final int CHUNK_TRAILER = 4;
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile String userAgent = DEFAULT_USER_AGENT;
+    private volatile String requestMethod = "GET";
+    private volatile boolean keepAlive = true;
+    private volatile boolean resetClose = false;
+    private volatile String socksUser;
+    private volatile String socksPassword;
+
+    /**
+     * Passed test result
+     */
+    public static class Result {
+        private final int ping;
+        private final Timings timings;
+
+        Result(int ping, Timings timings) {
+            this.ping = ping;
+            this.timings = timings;
+        }
+
+        /**
+         * @return true if test was done over connection kept from previous test
+         */
+        public boolean isReused() {
+            return timings.isReused();
+        }
+
+        public int getPing() {
+            return ping;
+        }
+
+        public Timings getTimings() {
+            return timings;
+        }
+    }
+
+    private enum State {
+        CONNECTING,
+        SOCKS_HANDSHAKE,
+        RESPONSE,
+        BODY,
+        /**
+         * Kept open after test, waits for the next test of the same proxy and target host
+         */
+        IDLE,
+        /**
+         * Connection is closed or handed to another session
+         */
+        CLOSED
+    }
+
+    /**
+     * Parsed test url
+     */
+    private static class Target {
+        final String host;
+        final int port;
+        final boolean secure;
+        final String file;
+        final String url;
+
+        Target(String url) throws MalformedURLException {
+            URL _url = new URL(url);
+            String protocol = _url.getProtocol().toLowerCase();
+            if (!protocol.equals("http") && !protocol.equals("https")) {
+                throw new MalformedURLException("Unsupported protocol: " + protocol);
+            }
+            this.secure = protocol.equals("https");
+            this.host = _url.getHost();
+            this.port = (_url.getPort() != -1) ? _url.getPort() : _url.getDefaultPort();
+            this.file = _url.getFile().isEmpty() ? "/" : _url.getFile();
+            this.url = url;
+        }
+
+        String hostHeader() {
+            return (port == (secure ? 443 : 80)) ? host : host + ":" + port;
+        }
+    }
+
+    /**
+     * @param threads - selector threads count
+     */
+    public NioProxyTester(int threads) throws IOException {
+        loops = new IoLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+            Thread thread = new Thread(loops[i], "nio-proxy-tester-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public NioProxyTester() throws IOException {
+        this(1);
+    }
+
+    /**
+     * Start test of proxy server
+     * @param ip - proxy ip
+     * @param port - proxy port
+     * @param type - proxy type
+     * @param url - tested url
+     * @param timeout - connect and read timeout, ms
+     * @return future completed with result or ProxyTester test exception
+     */
+    public CompletableFuture<Result> test(String ip, int port, Proxy.Type type, String url, int timeout) {
+        return test(ip, port, type, null, url, null, timeout);
+    }
+
+    /**
+     * @param socksVersion - version of SOCKS server, null for sequential SOCKS5 handshake of SOCKS type
+     * @param targetAddress - resolved host of tested url, needed by SOCKS4 server when host is a name
+     */
+    private CompletableFuture<Result> test(String ip, int port, Proxy.Type type, SocksClient.Version socksVersion,
+                                           String url, InetAddress targetAddress, int timeout) {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        try {
+            if (port < 0 || port > 0xFFFF) {
+                throw new ProxyTester.ProxyTestWrongSettingsException("port out of range:" + port);
+            }
+            Target target = new Target(url);
+            SocksClient.Handshake socks = null;
+            if (type == Proxy.Type.SOCKS) {
+                socks = new SocksClient((socksVersion != null) ? socksVersion : SocksClient.Version.SOCKS5,
+                        socksUser, socksPassword, socksVersion != null).handshake(target.host, targetAddress, target.port);
+            }
+            Session session = new Session(ip, port, type, socks, target, timeout, future);
+            IoLoop loop = (session.poolKey != null) ?
+                    loops[Math.floorMod(session.poolKey.hashCode(), loops.length)] :
+                    loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+            loop.submit(session);
+        } catch (MalformedURLException e) {
+            future.completeExceptionally(new ProxyTester.ProxyTestUrlException(e.getMessage()));
+        } catch (UnknownHostException e) {
+            future.completeExceptionally(new ProxyTester.ProxyTestConnectException(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            future.completeExceptionally(new ProxyTester.ProxyTestWrongSettingsException(e.getMessage()));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Start TCP connect probe of server, without proxy handshake
+     * @param ip - server ip
+     * @param port - server port
+     * @param timeout - connect timeout, ms
+     * @return future completed with connect time as ping, or ProxyTester test exception
+     */
+    public CompletableFuture<Result> probe(String ip, int port, int timeout) {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        if (port < 0 || port > 0xFFFF) {
+            future.completeExceptionally(new ProxyTester.ProxyTestWrongSettingsException("port out of range:" + port));
+            return future;
+        }
+        IoLoop loop = loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+        loop.submit(new Session(ip, port, Proxy.Type.HTTP, null, null, timeout, future));
+        return future;
+    }
+
+    public CompletableFuture<Result> test(SocketAddressEx address, ProxyType type, String url, int timeout) {
+        return test(address, type, url, null, timeout);
+    }
+
+    /**
+     * @param targetAddress - resolved host of tested url, needed by SOCKS4 server when host is a name,
+     * the engine doesn't resolve it by itself
+     */
+    public CompletableFuture<Result> test(SocketAddressEx address, ProxyType type, String url,
+                                          InetAddress targetAddress, int timeout) {
+        return test(address.getIp(), address.getPort(), type.getAsProxyType(), type.getSocksVersion(), url,
+                targetAddress, timeout);
+    }
+
+    /**
+     * Blocking test, waits until the test is complete
+     * @return test result
+     */
+    public Result syncTest(SocketAddressEx address, ProxyType type, String url, int timeout) throws
+            ProxyTester.ProxyTestUrlException, ProxyTester.ProxyTestTimeoutException,
+            ProxyTester.ProxyTestConnectException, ProxyTester.ProxyTestWrongSettingsException,
+            ProxyTester.ProxyTestUnexpectedException {
+        return await(test(address, type, url, timeout));
+    }
+
+    /**
+     * Wait for test started by {@link #test(SocketAddressEx, ProxyType, String, int)}.
+     * Test future may be cancelled from other thread, then its connection is closed and waiting test fails
+     * @return test result
+     */
+    public static Result await(CompletableFuture<Result> future) throws
+            ProxyTester.ProxyTestUrlException, ProxyTester.ProxyTestTimeoutException,
+            ProxyTester.ProxyTestConnectException, ProxyTester.ProxyTestWrongSettingsException,
+            ProxyTester.ProxyTestUnexpectedException {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            throw new ProxyTester.ProxyTestConnectException("Cancelled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProxyTester.ProxyTestUnexpectedException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ProxyTester.ProxyTestUrlException) {
+                throw (ProxyTester.ProxyTestUrlException) cause;
+            } else if (cause instanceof ProxyTester.ProxyTestTimeoutException) {
+                throw (ProxyTester.ProxyTestTimeoutException) cause;
+            } else if (cause instanceof ProxyTester.ProxyTestConnectException) {
+                throw (ProxyTester.ProxyTestConnectException) cause;
+            } else if (cause instanceof ProxyTester.ProxyTestWrongSettingsException) {
+                throw (ProxyTester.ProxyTestWrongSettingsException) cause;
+            }
+            throw new ProxyTester.ProxyTestUnexpectedException(cause.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        for (IoLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    public String getRequestMethod() {
+        return requestMethod;
+    }
+
+    public void setRequestMethod(String requestMethod) {
+        this.requestMethod = requestMethod;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public boolean isResetClose() {
+        return resetClose;
+    }
+
+    /**
+     * @param resetClose - close connections with reset (zero linger), so they don't stay in TIME_WAIT
+     *                   and hold local ports
+     */
+    public void setResetClose(boolean resetClose) {
+        this.resetClose = resetClose;
+    }
+
+    /**
+     * @param user - user name of SOCKS5 authentication and SOCKS4 user id, or null
+     * @param password - SOCKS5 password
+     */
+    public void setSocksCredentials(String user, String password) {
+        this.socksUser = user;
+        this.socksPassword = password;
+    }
+
+    /**
+     * @param keepAlive - keep connections of http tests open for the next tests of the same proxy
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Selector thread, owns all sessions registered on it
+     */
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Session> pending = new ConcurrentLinkedQueue<>();
+        /**
+         * Sessions with future cancelled by other thread, their connections are closed by selector thread
+         */
+        private final ConcurrentLinkedQueue<Session> cancelled = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Session> deadlines = new PriorityQueue<>();
+        private final HashMap<String, ArrayDeque<Session>> idle = new HashMap<>();
+        private int idleCount = 0;
+        private volatile boolean closed = false;
+
+        IoLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void submit(Session session) {
+            session.loop = this;
+            if (closed) {
+                session.future.completeExceptionally(
+                        new ProxyTester.ProxyTestUnexpectedException("Tester is closed"));
+                return;
+            }
+            pending.add(session);
+            selector.wakeup();
+            session.future.whenComplete((result, error) -> {
+                if (session.future.isCancelled()) {
+                    cancelled.add(session);
+                    selector.wakeup();
+                }
+            });
+        }
+
+        void close() {
+            closed = true;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(nextDeadlineDelay());
+                    registerPending();
+                    closeCancelled();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ((Session) key.attachment()).handle(key);
+                    }
+                    expire();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                closed = true;
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Session) key.attachment()).fail(
+                            new ProxyTester.ProxyTestUnexpectedException("Tester is closed"));
+                }
+                Session session;
+                while ((session = pending.poll()) != null) {
+                    session.fail(new ProxyTester.ProxyTestUnexpectedException("Tester is closed"));
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * @return idle connection session of pool key, null if there is none
+         */
+        Session takeIdle(String poolKey) {
+            ArrayDeque<Session> sessions = idle.get(poolKey);
+            if (sessions == null) {
+                return null;
+            }
+            Session session = sessions.pollLast();
+            if (sessions.isEmpty()) {
+                idle.remove(poolKey);
+            }
+            idleCount--;
+            return session;
+        }
+
+        /**
+         * @return false when idle connections limit is reached
+         */
+        boolean putIdle(Session session) {
+            if (idleCount >= MAX_IDLE) {
+                return false;
+            }
+            idle.computeIfAbsent(session.poolKey, k -> new ArrayDeque<>()).add(session);
+            idleCount++;
+            return true;
+        }
+
+        void removeIdle(Session session) {
+            ArrayDeque<Session> sessions = idle.get(session.poolKey);
+            if (sessions != null && sessions.remove(session)) {
+                idleCount--;
+                if (sessions.isEmpty()) {
+                    idle.remove(session.poolKey);
+                }
+            }
+        }
+
+        private long nextDeadlineDelay() {
+            Session first = deadlines.peek();
+            if (first == null) {
+                return 1000;
+            }
+            return Math.min(1000, Math.max(1, first.queuedDeadline - System.currentTimeMillis()));
+        }
+
+        private void registerPending() {
+            Session session;
+            while ((session = pending.poll()) != null) {
+                if (session.isDone()) {
+                    // cancelled before start
+                    continue;
+                }
+                session.open(selector);
+                if (!session.isDone()) {
+                    session.queuedDeadline = session.deadline;
+                    deadlines.add(session);
+                }
+            }
+        }
+
+        /**
+         * Close connections of cancelled sessions, connection kept idle by session complete at the same time
+         * stays in the pool
+         */
+        private void closeCancelled() {
+            Session session;
+            while ((session = cancelled.poll()) != null) {
+                if (session.state != State.IDLE && session.state != State.CLOSED) {
+                    session.state = State.CLOSED;
+                    session.closeChannel();
+                }
+            }
+        }
+
+        /**
+         * Deadlines only move forward, so outdated queue entries are requeued lazily
+         */
+        private void expire() {
+            long now = System.currentTimeMillis();
+            Session session;
+            while ((session = deadlines.peek()) != null) {
+                if (session.isDone() && session.state != State.IDLE) {
+                    deadlines.poll();
+                    session.closeChannel();
+                } else if (session.queuedDeadline > now) {
+                    break;
+                } else {
+                    deadlines.poll();
+                    if (session.deadline > now) {
+                        session.queuedDeadline = session.deadline;
+                        deadlines.add(session);
+                    } else {
+                        session.fail(new ProxyTester.ProxyTestTimeoutException(session.timeoutMessage()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Single test state, confined to its selector thread.
+     * Session without target is connect probe, session with pool key may keep its connection
+     */
+    private class Session implements Comparable<Session> {
+        final String ip;
+        final int port;
+        final Proxy.Type type;
+        /**
+         * Handshake of SOCKS type session
+         */
+        final SocksClient.Handshake socks;
+        final Target target;
+        final int timeout;
+        final CompletableFuture<Result> future;
+        final String poolKey;
+        IoLoop loop;
+
+        SocketChannel channel;
+        SelectionKey key;
+        State state = State.CONNECTING;
+        ByteBuffer out;
+        ByteBuffer in = ByteBuffer.allocate(512);
+        long start;
+        /**
+         * Connect or handshake time, first byte time of request over reused connection
+         */
+        int ping;
+        boolean tunnel;
+        int connectMark = -1;
+        int handshakeMark = -1;
+        int firstByteMark = -1;
+        int totalMark = -1;
+        long bodyRemaining;
+        boolean reused;
+        boolean reusable;
+        boolean bodyComplete;
+        boolean headRequest;
+        boolean chunked;
+        int chunkState = CHUNK_SIZE;
+        long chunkRemaining;
+        int trailerLineLength;
+        long deadline;
+        long queuedDeadline;
+
+        Session(String ip, int port, Proxy.Type type, SocksClient.Handshake socks, Target target, int timeout,
+                CompletableFuture<Result> future) {
+            this.ip = ip;
+            this.port = port;
+            this.type = type;
+            this.socks = socks;
+            this.target = target;
+            this.timeout = timeout;
+            this.future = future;
+            this.poolKey = (keepAlive && target != null && !target.secure) ?
+                    type + "|" + ip + ":" + port + "|" + target.host + ":" + target.port : null;
+        }
+
+        boolean isDone() {
+            return future.isDone();
+        }
+
+        String timeoutMessage() {
+            return (state == State.CONNECTING) ? "connect timed out" : "Read timed out";
+        }
+
+        void open(Selector selector) {
+            if (poolKey != null) {
+                Session idle = loop.takeIdle(poolKey);
+                if (idle != null) {
+                    adopt(idle);
+                    return;
+                }
+            }
+            openChannel(selector);
+        }
+
+        /**
+         * Send request over idle connection of previous session
+         */
+        private void adopt(Session idle) {
+            channel = idle.channel;
+            key = idle.key;
+            idle.channel = null;
+            idle.key = null;
+            idle.state = State.CLOSED;
+            key.attach(this);
+            reused = true;
+            start = System.nanoTime();
+            deadline = System.currentTimeMillis() + timeout;
+            try {
+                sendRequest((type == Proxy.Type.HTTP) ? target.url : target.file);
+            } catch (IOException e) {
+                fail(new ProxyTester.ProxyTestConnectException(e.getMessage()));
+            } catch (RuntimeException e) {
+                fail(new ProxyTester.ProxyTestUnexpectedException(e.getMessage()));
+            }
+        }
+
+        private void openChannel(Selector selector) {
+            try {
+                InetSocketAddress remote = (type == Proxy.Type.DIRECT) ?
+                        new InetSocketAddress(target.host, target.port) :
+                        new InetSocketAddress(ip, port);
+                if (remote.isUnresolved()) {
+                    throw new UnknownHostException(remote.getHostString());
+                }
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                start = System.nanoTime();
+                deadline = System.currentTimeMillis() + timeout;
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                if (channel.connect(remote)) {
+                    connected();
+                }
+            } catch (IllegalArgumentException e) {
+                fail(new ProxyTester.ProxyTestWrongSettingsException(e.getMessage()));
+            } catch (BindException e) {
+                fail(new ProxyTester.ProxyTestLocalException(e.getMessage()));
+            } catch (IOException e) {
+                fail(new ProxyTester.ProxyTestConnectException(e.getMessage()));
+            } catch (RuntimeException e) {
+                fail(new ProxyTester.ProxyTestUnexpectedException(e.getMessage()));
+            }
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (state == State.IDLE) {
+                    // idle connection is closed or sends unexpected data
+                    loop.removeIdle(this);
+                    state = State.CLOSED;
+                    closeChannel();
+                    return;
+                }
+                if (isDone()) {
+                    closeChannel();
+                    return;
+                }
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        connected();
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                fail(new ProxyTester.ProxyTestConnectException(e.getMessage()));
+            } catch (RuntimeException e) {
+                fail(new ProxyTester.ProxyTestUnexpectedException(e.getMessage()));
+            }
+        }
+
+        private void connected() throws IOException {
+            connectMark = elapsed();
+            if (target == null) {
+                ping = connectMark;
+                complete();
+                return;
+            }
+            if (socks != null) {
+                state = State.SOCKS_HANDSHAKE;
+                send(socks.start());
+                return;
+            }
+            ping = elapsed();
+            if (target.secure) {
+                if (type == Proxy.Type.DIRECT) {
+                    complete();
+                    return;
+                }
+                state = State.RESPONSE;
+                tunnel = true;
+                send(("CONNECT " + target.host + ":" + target.port + " HTTP/1.1\r\n" +
+                        "Host: " + target.host + ":" + target.port + "\r\n" +
+                        "User-Agent: " + userAgent + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                return;
+            }
+            sendRequest((type == Proxy.Type.HTTP) ? target.url : target.file);
+        }
+
+        private void sendRequest(String requestTarget) throws IOException {
+            state = State.RESPONSE;
+            String method = requestMethod;
+            headRequest = method.equalsIgnoreCase("HEAD");
+            String connection = (poolKey != null) ? "keep-alive" : "close";
+            send((method + " " + requestTarget + " HTTP/1.1\r\n" +
+                    "Host: " + target.hostHeader() + "\r\n" +
+                    "User-Agent: " + userAgent + "\r\n" +
+                    "Accept: */*\r\n" +
+                    ((type == Proxy.Type.HTTP) ? "Proxy-Connection: " + connection + "\r\n" : "") +
+                    "Connection: " + connection + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private void send(byte[] data) throws IOException {
+            out = ByteBuffer.wrap(data);
+            deadline = System.currentTimeMillis() + timeout;
+            flush();
+        }
+
+        private void flush() throws IOException {
+            channel.write(out);
+            key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void read() throws IOException {
+            int count = channel.read(in);
+            if (count < 0) {
+                if (state == State.BODY) {
+                    finish();
+                    return;
+                }
+                throw new EOFException("Unexpected end of file from server");
+            }
+            if (state != State.BODY) {
+                // body must end within timeout after headers, so trickling body doesn't hold the test
+                deadline = System.currentTimeMillis() + timeout;
+            }
+            in.flip();
+            switch (state) {
+                case SOCKS_HANDSHAKE:
+                    byte[] next = socks.receive(in);
+                    if (socks.isComplete()) {
+                        ping = elapsed();
+                        handshakeMark = ping;
+                        if (target.secure) {
+                            complete();
+                            return;
+                        }
+                        sendRequest(target.file);
+                    } else if (next.length > 0) {
+                        send(next);
+                    }
+                    break;
+                case RESPONSE:
+                    if (!tunnel && firstByteMark < 0) {
+                        firstByteMark = elapsed();
+                        if (reused) {
+                            // reused connection has no connect, request round trip stands for it
+                            ping = firstByteMark;
+                        }
+                    }
+                    int code = statusCode();
+                    if (code == -1) {
+                        break;
+                    }
+                    if (code != 200) {
+                        fail(new ProxyTester.ProxyTestConnectException("Response code:" + code));
+                        return;
+                    }
+                    if (tunnel) {
+                        handshakeMark = elapsed();
+                        complete();
+                        return;
+                    }
+                    int end = headersEnd();
+                    if (end == -1) {
+                        break;
+                    }
+                    state = State.BODY;
+                    bodyRemaining = -1;
+                    if (end > 0) {
+                        parseHeaders(end);
+                        in.position(end);
+                    }
+                    consumeBody();
+                    return;
+                case BODY:
+                    consumeBody();
+                    return;
+                default:
+                    break;
+            }
+            in.compact();
+        }
+
+        /**
+         * @return position after response headers, -1 when they are not received yet,
+         * 0 when they are too long to be buffered
+         */
+        private int headersEnd() {
+            for (int i = in.position(); i < in.limit() - 3; i++) {
+                if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                    return i + 4;
+                }
+            }
+            if (in.remaining() >= MAX_RESPONSE_HEADERS) {
+                return 0;
+            }
+            if (in.limit() == in.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_RESPONSE_HEADERS));
+                grown.put(in);
+                grown.flip();
+                in = grown;
+            }
+            return -1;
+        }
+
+        /**
+         * Read body framing and connection persistence from response headers
+         */
+        private void parseHeaders(int end) {
+            String headers = new String(in.array(), in.position(), end - in.position(), StandardCharsets.ISO_8859_1);
+            String[] lines = headers.split("\r\n");
+            boolean close = false;
+            boolean keepAliveHeader = false;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim();
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        bodyRemaining = Long.parseLong(value);
+                    } catch (NumberFormatException ignored) {
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.toLowerCase().endsWith("chunked");
+                } else if (name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Proxy-Connection")) {
+                    close |= value.equalsIgnoreCase("close");
+                    keepAliveHeader |= value.equalsIgnoreCase("keep-alive");
+                }
+            }
+            if (headRequest) {
+                bodyRemaining = 0;
+                chunked = false;
+            } else if (chunked) {
+                bodyRemaining = -1;
+            }
+            boolean http10 = lines[0].startsWith("HTTP/1.0");
+            reusable = poolKey != null && !close && (!http10 || keepAliveHeader) &&
+                    (chunked || bodyRemaining >= 0);
+        }
+
+        /**
+         * Discard received body bytes, finish test when body of known length or chunked body is complete,
+         * body of unknown length ends with connection close
+         */
+        private void consumeBody() throws IOException {
+            if (chunked) {
+                bodyComplete = consumeChunks();
+            } else if (bodyRemaining >= 0) {
+                bodyRemaining -= in.remaining();
+                bodyComplete = bodyRemaining <= 0;
+            }
+            in.clear();
+            if (bodyComplete) {
+                finish();
+            }
+        }
+
+        /**
+         * Chunked body decoder, keeps its state between reads
+         * @return true when the last chunk and trailer are received
+         */
+        private boolean consumeChunks() throws IOException {
+            while (in.hasRemaining()) {
+                switch (chunkState) {
+                    case CHUNK_SIZE:
+                    case CHUNK_EXTENSION:
+                        byte b = in.get();
+                        if (b == '\n') {
+                            chunkState = (chunkRemaining == 0) ? CHUNK_TRAILER : CHUNK_DATA;
+                            trailerLineLength = 0;
+                        } else if (b == ';') {
+                            chunkState = CHUNK_EXTENSION;
+                        } else if (chunkState == CHUNK_SIZE && b != '\r' && b != ' ') {
+                            int digit = Character.digit(b, 16);
+                            if (digit < 0 || chunkRemaining > Integer.MAX_VALUE) {
+                                throw new ProtocolException("Invalid chunk size");
+                            }
+                            chunkRemaining = chunkRemaining * 16 + digit;
+                        }
+                        break;
+                    case CHUNK_DATA:
+                        int count = (int) Math.min(chunkRemaining, in.remaining());
+                        in.position(in.position() + count);
+                        chunkRemaining -= count;
+                        if (chunkRemaining == 0) {
+                            chunkState = CHUNK_DATA_END;
+                        }
+                        break;
+                    case CHUNK_DATA_END:
+                        if (in.get() == '\n') {
+                            chunkState = CHUNK_SIZE;
+                        }
+                        break;
+                    default:
+                        b = in.get();
+                        if (b == '\n') {
+                            if (trailerLineLength == 0) {
+                                return true;
+                            }
+                            trailerLineLength = 0;
+                        } else if (b != '\r') {
+                            trailerLineLength++;
+                        }
+                        break;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return response status code or -1 when status line is not received yet
+         */
+        private int statusCode() throws IOException {
+            for (int i = in.position(); i < in.limit() - 1; i++) {
+                if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                    String line = new String(in.array(), in.position(), i - in.position(), StandardCharsets.ISO_8859_1);
+                    String[] parts = line.split(" ", 3);
+                    if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                        throw new ProtocolException("Invalid Http response");
+                    }
+                    try {
+                        return Integer.parseInt(parts[1]);
+                    } catch (NumberFormatException e) {
+                        throw new ProtocolException("Invalid Http response");
+                    }
+                }
+            }
+            if (in.remaining() >= MAX_RESPONSE_LINE) {
+                throw new ProtocolException("Invalid Http response");
+            }
+            if (in.limit() == in.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_RESPONSE_LINE));
+                grown.put(in);
+                grown.flip();
+                in = grown;
+            }
+            return -1;
+        }
+
+        private int elapsed() {
+            return (int) ((System.nanoTime() - start) / 1e6);
+        }
+
+        private void finish() {
+            totalMark = elapsed();
+            complete();
+        }
+
+        /**
+         * Complete passed test, connection with complete body and persistent response is kept idle
+         */
+        private void complete() {
+            if (reusable && bodyComplete && loop.putIdle(this)) {
+                state = State.IDLE;
+                deadline = System.currentTimeMillis() + IDLE_TIMEOUT;
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                closeChannel();
+            }
+            future.complete(new Result(ping,
+                    new Timings(connectMark, handshakeMark, firstByteMark, totalMark, reused)));
+        }
+
+        /**
+         * Fail test, or complete it without total time when response status is already received.
+         * Test over reused connection which failed before response is repeated over new connection,
+         * as the connection may be closed by proxy while it was idle
+         */
+        void fail(Exception e) {
+            if (state == State.IDLE || state == State.CLOSED) {
+                loop.removeIdle(this);
+                state = State.CLOSED;
+                closeChannel();
+                return;
+            }
+            if (state == State.BODY) {
+                complete();
+                return;
+            }
+            closeChannel();
+            if (reused && firstByteMark < 0 && !(e instanceof ProxyTester.ProxyTestTimeoutException) && !loop.closed) {
+                reused = false;
+                state = State.CONNECTING;
+                in.clear();
+                openChannel(loop.selector);
+                return;
+            }
+            future.completeExceptionally(e);
+        }
+
+        private void closeChannel() {
+            if (key != null) {
+                key.cancel();
+                key = null;
+            }
+            if (channel != null) {
+                if (resetClose && channel.isOpen()) {
+                    try {
+                        channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Session o) {
+            return Long.compare(queuedDeadline, o.queuedDeadline);
+        }
+    }
+}
@@ -0,0 +1,772 @@
+package util.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Simulated proxy servers on loopback ports, for offline load tests of the tester.
+ * Every endpoint is HTTP proxy or SOCKS server with its profile:
+ * latency distribution of replies and behavior (ok, blackhole, reset, non-200 status, slow body).
+ * SOCKS endpoints speak SOCKS5 without authentication by default, or the set SOCKS version,
+ * with credentials checked when they are set.
+ * All endpoints are served by one selector thread, random delays use fixed seed.
+ * Each endpoint holds a listening socket, so thousands of endpoints need enough file descriptors.
+ */
+public class ProxyFarm implements Closeable {
+    private static final byte[] BODY = "<html><body>jproxy farm</body></html>".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int MAX_REQUEST = 16 * 1024;
+
+    private final Selector selector;
+    private final Random random;
+    private final List<Endpoint> endpoints = Collections.synchronizedList(new ArrayList<>());
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timed> timers = new PriorityQueue<>();
+    private long timersSequence = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Endpoint behavior
+     */
+    public enum Behavior {
+        /**
+         * Answers 200 after latency delay
+         */
+        OK,
+        /**
+         * Accepts connection but never answers
+         */
+        BLACKHOLE,
+        /**
+         * Resets connection right after accept
+         */
+        RESET,
+        /**
+         * Answers with profile status code after latency delay
+         */
+        STATUS,
+        /**
+         * Answers 200 after latency delay and sends body one byte per body delay
+         */
+        SLOW_BODY
+    }
+
+    /**
+     * Reply delay distribution, ms
+     */
+    public interface Latency {
+        long next(Random random);
+
+        static Latency constant(long ms) {
+            return random -> ms;
+        }
+
+        static Latency uniform(long min, long max) {
+            return random -> min + (long) (random.nextDouble() * (max - min));
+        }
+
+        static Latency exponential(double mean) {
+            return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+        }
+
+        /**
+         * @param median - distribution median, ms
+         * @param sigma - standard deviation of logarithm
+         */
+        static Latency logNormal(double median, double sigma) {
+            return random -> (long) (median * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    /**
+     * Settings shared by group of endpoints
+     */
+    public static class Profile {
+        private final Proxy.Type type;
+        private final Behavior behavior;
+        private final Latency latency;
+        private int statusCode = 403;
+        private int bodyDelay = 100;
+        private SocksClient.Version socksVersion;
+        private String user;
+        private String password;
+        private boolean splitReplies;
+
+        /**
+         * @param type - Proxy.Type.HTTP or Proxy.Type.SOCKS
+         * @param behavior - endpoint behavior
+         * @param latency - reply delay distribution
+         */
+        public Profile(Proxy.Type type, Behavior behavior, Latency latency) {
+            if (type == Proxy.Type.DIRECT) {
+                throw new IllegalArgumentException("Farm endpoint can't be direct");
+            }
+            this.type = type;
+            this.behavior = behavior;
+            this.latency = latency;
+        }
+
+        public Proxy.Type getType() {
+            return type;
+        }
+
+        public Behavior getBehavior() {
+            return behavior;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @param statusCode - response code of STATUS behavior
+         */
+        public Profile setStatusCode(int statusCode) {
+            this.statusCode = statusCode;
+            return this;
+        }
+
+        public int getBodyDelay() {
+            return bodyDelay;
+        }
+
+        /**
+         * @param bodyDelay - delay between body bytes of SLOW_BODY behavior, ms
+         */
+        public Profile setBodyDelay(int bodyDelay) {
+            this.bodyDelay = bodyDelay;
+            return this;
+        }
+
+        public SocksClient.Version getSocksVersion() {
+            return socksVersion;
+        }
+
+        /**
+         * @param socksVersion - version of SOCKS endpoint, advertised by its proxy type,
+         * null for SOCKS5 advertised as plain "socks"
+         */
+        public Profile setSocksVersion(SocksClient.Version socksVersion) {
+            this.socksVersion = socksVersion;
+            return this;
+        }
+
+        /**
+         * @param user - SOCKS5 user name, which is then the only accepted method, or SOCKS4 user id, null for none
+         * @param password - SOCKS5 password
+         */
+        public Profile setCredentials(String user, String password) {
+            this.user = user;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * @param splitReplies - send SOCKS replies byte by byte, so client gets them in several reads
+         */
+        public Profile setSplitReplies(boolean splitReplies) {
+            this.splitReplies = splitReplies;
+            return this;
+        }
+    }
+
+    /**
+     * Listening farm server
+     */
+    public static class Endpoint {
+        private final Profile profile;
+        private final int port;
+        private volatile String lastTarget;
+
+        Endpoint(Profile profile, int port) {
+            this.profile = profile;
+            this.port = port;
+        }
+
+        public Profile getProfile() {
+            return profile;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public ProxyType getProxyType() {
+            if (profile.getType() != Proxy.Type.SOCKS) {
+                return new ProxyType(ProxyType.HTTP);
+            }
+            return new ProxyType((profile.getSocksVersion() != null) ?
+                    profile.getSocksVersion().name().toLowerCase() : "socks");
+        }
+
+        /**
+         * @return target of the last SOCKS connect request as host:port, IPv4 target as address,
+         * null before the first request
+         */
+        public String getLastTarget() {
+            return lastTarget;
+        }
+
+        public SocketAddressEx getAddress() {
+            return new SocketAddressEx("127.0.0.1", port);
+        }
+    }
+
+    private static class Timed implements Comparable<Timed> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Timed(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Timed o) {
+            int res = Long.compare(time, o.time);
+            return (res != 0) ? res : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private enum Stage {
+        SOCKS_GREETING,
+        SOCKS_AUTHENTICATION,
+        SOCKS_REQUEST,
+        SOCKS4_REQUEST,
+        HTTP_REQUEST,
+        REPLYING
+    }
+
+    public ProxyFarm(long seed) throws IOException {
+        selector = Selector.open();
+        random = new Random(seed);
+        Thread thread = new Thread(this::loop, "proxy-farm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public ProxyFarm() throws IOException {
+        this(42);
+    }
+
+    /**
+     * Farm with default mix of endpoints
+     * @param count - endpoints count
+     */
+    public static ProxyFarm withDefaultMix(int count) throws IOException {
+        ProxyFarm farm = new ProxyFarm();
+        try {
+            farm.addDefaultMix(count);
+        } catch (IOException e) {
+            farm.close();
+            throw e;
+        }
+        return farm;
+    }
+
+    /**
+     * Open endpoints with default mix of working, dead and misbehaving HTTP and SOCKS servers:
+     * 45% ok, 25% blackhole, 10% reset, 10% non-200 status, 10% slow body
+     * @param count - endpoints count
+     * @return opened endpoints
+     */
+    public List<Endpoint> addDefaultMix(int count) throws IOException {
+        Latency latency = Latency.logNormal(150, 0.8);
+        List<Endpoint> res = new ArrayList<>(count);
+        res.addAll(addEndpoints(count * 30 / 100, new Profile(Proxy.Type.HTTP, Behavior.OK, latency)));
+        res.addAll(addEndpoints(count * 15 / 100, new Profile(Proxy.Type.SOCKS, Behavior.OK, latency)));
+        res.addAll(addEndpoints(count * 20 / 100, new Profile(Proxy.Type.HTTP, Behavior.BLACKHOLE, latency)));
+        res.addAll(addEndpoints(count * 5 / 100, new Profile(Proxy.Type.SOCKS, Behavior.BLACKHOLE, latency)));
+        res.addAll(addEndpoints(count * 10 / 100, new Profile(Proxy.Type.HTTP, Behavior.RESET, latency)));
+        res.addAll(addEndpoints(count * 10 / 100, new Profile(Proxy.Type.HTTP, Behavior.STATUS, latency)));
+        res.addAll(addEndpoints(count - res.size(), new Profile(Proxy.Type.HTTP, Behavior.SLOW_BODY, latency)));
+        return res;
+    }
+
+    /**
+     * Open endpoints on free loopback ports
+     * @param count - endpoints count
+     * @param profile - endpoints settings
+     * @return opened endpoints
+     */
+    public List<Endpoint> addEndpoints(int count, Profile profile) throws IOException {
+        List<Endpoint> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            try {
+                server.configureBlocking(false);
+                server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            Endpoint endpoint = new Endpoint(profile, server.socket().getLocalPort());
+            pending.add(() -> {
+                try {
+                    server.register(selector, SelectionKey.OP_ACCEPT, endpoint);
+                } catch (ClosedChannelException ignored) {
+                }
+            });
+            res.add(endpoint);
+        }
+        endpoints.addAll(res);
+        selector.wakeup();
+        return res;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        synchronized (endpoints) {
+            return new ArrayList<>(endpoints);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                Timed first = timers.peek();
+                long wait = (first == null) ? 0 : Math.max(1, first.time - System.currentTimeMillis());
+                selector.select(wait);
+
+                Runnable task;
+                while ((task = pending.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                long now = System.currentTimeMillis();
+                while (!timers.isEmpty() && timers.peek().time <= now) {
+                    timers.poll().action.run();
+                }
+            }
+        } catch (IOException | ClosedSelectorException ignored) {
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void schedule(long delay, Runnable action) {
+        timers.add(new Timed(System.currentTimeMillis() + delay, timersSequence++, action));
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept(key);
+            } else if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isWritable()) {
+                    connection.flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        Endpoint endpoint = (Endpoint) key.attachment();
+        SocketChannel channel;
+        while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+            channel.configureBlocking(false);
+            if (endpoint.getProfile().getBehavior() == Behavior.RESET) {
+                channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                channel.close();
+                continue;
+            }
+            Connection connection = new Connection(channel, endpoint);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Accepted client connection, confined to farm thread
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final Endpoint endpoint;
+        final Profile profile;
+        SelectionKey key;
+        Stage stage;
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        ByteBuffer out;
+        Runnable afterWrite;
+
+        Connection(SocketChannel channel, Endpoint endpoint) {
+            this.channel = channel;
+            this.endpoint = endpoint;
+            this.profile = endpoint.getProfile();
+            if (profile.getType() != Proxy.Type.SOCKS) {
+                this.stage = Stage.HTTP_REQUEST;
+            } else if (profile.getSocksVersion() == SocksClient.Version.SOCKS4 ||
+                    profile.getSocksVersion() == SocksClient.Version.SOCKS4A) {
+                this.stage = Stage.SOCKS4_REQUEST;
+            } else {
+                this.stage = Stage.SOCKS_GREETING;
+            }
+        }
+
+        void read() throws IOException {
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= MAX_REQUEST) {
+                    throw new IOException("Request is too long");
+                }
+                ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                grown.put(in);
+                in = grown;
+            }
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            if (profile.getBehavior() == Behavior.BLACKHOLE) {
+                in.clear();
+                return;
+            }
+            process();
+        }
+
+        /**
+         * Handle received requests, pipelined requests are handled when reply to previous one is sent
+         */
+        private void process() {
+            in.flip();
+            boolean progress = true;
+            while (progress && channel.isOpen()) {
+                progress = false;
+                switch (stage) {
+                    case SOCKS_GREETING:
+                        if (in.remaining() >= 2 && in.remaining() >= 2 + (in.get(in.position() + 1) & 0xFF)) {
+                            // the only accepted method: username/password with credentials, none without
+                            int accepted = (profile.user != null) ? 2 : 0;
+                            boolean offered = false;
+                            for (int i = 0; i < (in.get(in.position() + 1) & 0xFF); i++) {
+                                offered |= in.get(in.position() + 2 + i) == accepted;
+                            }
+                            in.position(in.position() + 2 + (in.get(in.position() + 1) & 0xFF));
+                            stage = Stage.REPLYING;
+                            if (!offered) {
+                                socksReply(new byte[]{5, (byte) 0xFF}, this::close);
+                            } else {
+                                socksReply(new byte[]{5, (byte) accepted}, () -> next((accepted == 2) ?
+                                        Stage.SOCKS_AUTHENTICATION : Stage.SOCKS_REQUEST));
+                            }
+                            progress = true;
+                        }
+                        break;
+                    case SOCKS_AUTHENTICATION:
+                        String[] credentials = socksCredentials();
+                        if (credentials != null) {
+                            stage = Stage.REPLYING;
+                            if (credentials[0].equals(profile.user) && credentials[1].equals(profile.password)) {
+                                socksReply(new byte[]{1, 0}, () -> next(Stage.SOCKS_REQUEST));
+                            } else {
+                                socksReply(new byte[]{1, 1}, this::close);
+                            }
+                            progress = true;
+                        }
+                        break;
+                    case SOCKS_REQUEST:
+                        int length = socksRequestLength();
+                        if (length < 0) {
+                            close();
+                        } else if (length > 0 && in.remaining() >= length) {
+                            endpoint.lastTarget = socksTarget();
+                            in.position(in.position() + length);
+                            stage = Stage.REPLYING;
+                            socksReply(new byte[]{5, 0, 0, 1, 127, 0, 0, 1, 0, 0}, () -> next(Stage.HTTP_REQUEST));
+                            progress = true;
+                        }
+                        break;
+                    case SOCKS4_REQUEST:
+                        String[] socks4 = socks4Request();
+                        if (socks4 != null) {
+                            endpoint.lastTarget = socks4[0];
+                            // SOCKS4 server doesn't take host names
+                            boolean granted = (socks4[2] == null ||
+                                    profile.getSocksVersion() == SocksClient.Version.SOCKS4A) &&
+                                    (profile.user == null || profile.user.equals(socks4[1]));
+                            stage = Stage.REPLYING;
+                            socksReply(new byte[]{0, (byte) (granted ? 90 : 91), 0, 0, 0, 0, 0, 0},
+                                    granted ? () -> next(Stage.HTTP_REQUEST) : this::close);
+                            progress = true;
+                        }
+                        break;
+                    case HTTP_REQUEST:
+                        int end = requestEnd();
+                        if (end > 0) {
+                            String request = new String(in.array(), in.position(), end - in.position(),
+                                    StandardCharsets.ISO_8859_1);
+                            boolean connect = request.startsWith("CONNECT ");
+                            boolean keepAlive = request.toLowerCase().contains("connection: keep-alive");
+                            in.position(end);
+                            stage = Stage.REPLYING;
+                            httpReply(connect, keepAlive);
+                            progress = true;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            in.compact();
+        }
+
+        private void next(Stage stage) {
+            this.stage = stage;
+            process();
+        }
+
+        /**
+         * Consume SOCKS5 username/password request
+         * @return user name and password, null if not received yet
+         */
+        private String[] socksCredentials() {
+            int pos = in.position();
+            if (in.remaining() < 2 || in.remaining() < 3 + (in.get(pos + 1) & 0xFF)) {
+                return null;
+            }
+            int userLength = in.get(pos + 1) & 0xFF;
+            int passwordLength = in.get(pos + 2 + userLength) & 0xFF;
+            if (in.remaining() < 3 + userLength + passwordLength) {
+                return null;
+            }
+            String[] res = {new String(in.array(), pos + 2, userLength, StandardCharsets.UTF_8),
+                    new String(in.array(), pos + 3 + userLength, passwordLength, StandardCharsets.UTF_8)};
+            in.position(pos + 3 + userLength + passwordLength);
+            return res;
+        }
+
+        /**
+         * @return target of SOCKS5 request which is fully received
+         */
+        private String socksTarget() {
+            int pos = in.position();
+            switch (in.get(pos + 3)) {
+                case 1:
+                    return (in.get(pos + 4) & 0xFF) + "." + (in.get(pos + 5) & 0xFF) + "." + (in.get(pos + 6) & 0xFF) +
+                            "." + (in.get(pos + 7) & 0xFF) + ":" + in.getChar(pos + 8);
+                case 3:
+                    int length = in.get(pos + 4) & 0xFF;
+                    return new String(in.array(), pos + 5, length, StandardCharsets.ISO_8859_1) + ":" +
+                            (int) in.getChar(pos + 5 + length);
+                default:
+                    byte[] address = new byte[16];
+                    for (int i = 0; i < address.length; i++) {
+                        address[i] = in.get(pos + 4 + i);
+                    }
+                    try {
+                        return "[" + InetAddress.getByAddress(address).getHostAddress() + "]:" +
+                                (int) in.getChar(pos + 20);
+                    } catch (IOException e) {
+                        return null;
+                    }
+            }
+        }
+
+        /**
+         * Consume SOCKS4 or SOCKS4a request
+         * @return target as host:port, user id and target host name of SOCKS4a request, null if not received yet
+         */
+        private String[] socks4Request() {
+            int pos = in.position();
+            int userEnd = zeroAfter(pos + 8);
+            if (userEnd < 0) {
+                return null;
+            }
+            String user = new String(in.array(), pos + 8, userEnd - pos - 8, StandardCharsets.UTF_8);
+            int port = in.getChar(pos + 2);
+            String host;
+            String name = null;
+            int end = userEnd + 1;
+            if (in.get(pos + 4) == 0 && in.get(pos + 5) == 0 && in.get(pos + 6) == 0 && in.get(pos + 7) != 0) {
+                // SOCKS4a: host name follows user id
+                int hostEnd = zeroAfter(end);
+                if (hostEnd < 0) {
+                    return null;
+                }
+                host = new String(in.array(), end, hostEnd - end, StandardCharsets.ISO_8859_1);
+                name = host;
+                end = hostEnd + 1;
+            } else {
+                host = (in.get(pos + 4) & 0xFF) + "." + (in.get(pos + 5) & 0xFF) + "." + (in.get(pos + 6) & 0xFF) +
+                        "." + (in.get(pos + 7) & 0xFF);
+            }
+            in.position(end);
+            return new String[]{host + ":" + port, user, name};
+        }
+
+        /**
+         * @return position of zero byte at or after from, -1 if it is not received yet
+         */
+        private int zeroAfter(int from) {
+            for (int i = from; i < in.limit(); i++) {
+                if (in.get(i) == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return SOCKS5 request length, 0 if unknown yet
+         */
+        private int socksRequestLength() {
+            if (in.remaining() < 5) {
+                return 0;
+            }
+            switch (in.get(in.position() + 3)) {
+                case 1:
+                    return 4 + 4 + 2;
+                case 3:
+                    return 4 + 1 + (in.get(in.position() + 4) & 0xFF) + 2;
+                case 4:
+                    return 4 + 16 + 2;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * @return position after request headers, 0 if not received yet
+         */
+        private int requestEnd() {
+            for (int i = in.position(); i < in.limit() - 3; i++) {
+                if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                    return i + 4;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @param keepAlive - client asked to keep connection, it waits for the next request after reply
+         */
+        private void httpReply(boolean connect, boolean keepAlive) {
+            if (connect && profile.getBehavior() != Behavior.STATUS) {
+                reply("HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), this::close);
+                return;
+            }
+            int code = (profile.getBehavior() == Behavior.STATUS) ? profile.getStatusCode() : 200;
+            String headers = "HTTP/1.1 " + code + " " + ((code == 200) ? "OK" : "Farm status") + "\r\n" +
+                    "Content-Type: text/html\r\n" +
+                    "Content-Length: " + BODY.length + "\r\n" +
+                    "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+            if (profile.getBehavior() == Behavior.SLOW_BODY) {
+                reply(headers.getBytes(StandardCharsets.ISO_8859_1), () -> slowBody(0));
+                return;
+            }
+            byte[] head = headers.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] data = Arrays.copyOf(head, head.length + BODY.length);
+            System.arraycopy(BODY, 0, data, head.length, BODY.length);
+            reply(data, keepAlive ? () -> next(Stage.HTTP_REQUEST) : this::close);
+        }
+
+        private void slowBody(int index) {
+            if (index == BODY.length) {
+                close();
+                return;
+            }
+            schedule(profile.getBodyDelay(), () -> write(new byte[]{BODY[index]}, () -> slowBody(index + 1)));
+        }
+
+        /**
+         * Write data after latency delay
+         */
+        private void reply(byte[] data, Runnable afterWrite) {
+            schedule(profile.latency.next(random), () -> write(data, afterWrite));
+        }
+
+        /**
+         * Write SOCKS reply after latency delay, byte by byte with split replies profile
+         */
+        private void socksReply(byte[] data, Runnable afterWrite) {
+            if (!profile.splitReplies) {
+                reply(data, afterWrite);
+                return;
+            }
+            schedule(profile.latency.next(random), () -> replyByte(data, 0, afterWrite));
+        }
+
+        private void replyByte(byte[] data, int index, Runnable afterWrite) {
+            if (index == data.length - 1) {
+                write(new byte[]{data[index]}, afterWrite);
+                return;
+            }
+            write(new byte[]{data[index]}, () -> schedule(1, () -> replyByte(data, index + 1, afterWrite)));
+        }
+
+        private void write(byte[] data, Runnable afterWrite) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            this.out = ByteBuffer.wrap(data);
+            this.afterWrite = afterWrite;
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            if (out == null) {
+                return;
+            }
+            channel.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            out = null;
+            Runnable action = afterWrite;
+            afterWrite = null;
+            if (action != null) {
+                action.run();
+            }
+        }
+
+        void close() {
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+}
@@ -1,22 +1,53 @@
 package util.net;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 
 public class ProxyTester {
     private final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) " +
             "AppleWebKit/537.36 (KHTML, like Gecko) " +
             "Chrome/76.0.3809.87 Safari/537.36";
+    /**
+     * Limit of response body read after status, longer body is cut and its connection is not reused
+     */
+    private static final int MAX_BODY = 64 * 1024;
 
     private String ip;
     private int port;
     private Proxy.Type type;
+    /**
+     * SOCKS version of native handshake, null when connection is made by JDK
+     */
+    private SocksClient.Version socksVersion;
+    private String socksUser;
+    private String socksPassword;
+    /**
+     * Resolved host of tested url for SOCKS4 server, resolved by the test when it is not set
+     */
+    private InetAddress targetAddress;
     private String userAgent = DEFAULT_USER_AGENT;
     private String requestMethod = "GET";
     private int timeout = 25 * 1000;
     private int readTimeout = 25 * 1000;
     private int pingTime;
+    private Timings timings;
     private boolean testResult = false;
+    /**
+     * Connection of the running test until its response code is received, for {@link #cancel()}
+     */
+    private volatile HttpURLConnection connection;
+    /**
+     * Socket of the running native SOCKS test, for {@link #cancel()}
+     */
+    private volatile Socket socket;
+    private volatile boolean cancelled = false;
 
     public static class ProxyTestTimeoutException extends Exception {
         ProxyTestTimeoutException(String message) {
@@ -42,6 +73,15 @@ public class ProxyTester {
         }
     }
 
+    /**
+     * Connect failed for lack of local resources, like free ephemeral port, proxy is not to blame
+     */
+    public static class ProxyTestLocalException extends ProxyTestConnectException {
+        ProxyTestLocalException(String message) {
+            super(message);
+        }
+    }
+
     public static class ProxyTestWrongSettingsException extends Exception {
         ProxyTestWrongSettingsException(String message) {
             super(message);
@@ -52,12 +92,14 @@ public class ProxyTester {
         this.ip = address.getIp();
         this.port = address.getPort();
         this.type = type.getAsProxyType();
+        this.socksVersion = type.getSocksVersion();
     }
 
     public ProxyTester(String ip, int port, ProxyType type) {
         this.ip = ip;
         this.port = port;
         this.type = type.getAsProxyType();
+        this.socksVersion = type.getSocksVersion();
     }
 
     public ProxyTester(String ip, int port, Proxy.Type type) {
@@ -69,36 +111,224 @@ public class ProxyTester {
     public void syncTest(String url) throws ProxyTestUrlException, ProxyTestTimeoutException, ProxyTestConnectException, ProxyTestWrongSettingsException, ProxyTestUnexpectedException {
         try {
             this.testResult = false;
+            this.timings = null;
             URL _url = new URL(url);
-            Proxy webProxy = new Proxy(this.type, new InetSocketAddress(this.ip, this.port));
-
-            HttpURLConnection connection = (HttpURLConnection) _url.openConnection(webProxy);
-            connection.setConnectTimeout(this.timeout);
-            connection.setReadTimeout(this.readTimeout);
-            connection.setRequestMethod(this.requestMethod);
-            connection.setRequestProperty("User-agent", this.userAgent);
-
-            long start = System.nanoTime();
-            connection.connect();
-            this.pingTime = (int) ((System.nanoTime() - start) / 1e6);
-
-            if (connection.getResponseCode() != 200) {
-                throw new ProxyTestConnectException("Response code:" + connection.getResponseCode());
+            if (socksVersion != null) {
+                socksTest(_url);
+            } else {
+                httpTest(_url);
             }
         } catch (MalformedURLException e) {
             throw new ProxyTestUrlException(e.getMessage());
         } catch (SocketTimeoutException e) {
             throw new ProxyTestTimeoutException(e.getMessage());
+        } catch (BindException e) {
+            throw new ProxyTestLocalException(e.getMessage());
         } catch (IOException e) {
             throw new ProxyTestConnectException(e.getMessage());
         } catch (IllegalArgumentException e) {
             throw new ProxyTestWrongSettingsException(e.getMessage());
         } catch (RuntimeException e) {
             throw new ProxyTestUnexpectedException(e.getMessage());
+        } finally {
+            this.connection = null;
         }
         this.testResult = true;
     }
 
+    private void httpTest(URL _url) throws IOException, ProxyTestConnectException {
+        Proxy webProxy = new Proxy(this.type, new InetSocketAddress(this.ip, this.port));
+
+        HttpURLConnection connection = (HttpURLConnection) _url.openConnection(webProxy);
+        this.connection = connection;
+        checkCancelled();
+        connection.setConnectTimeout(this.timeout);
+        connection.setReadTimeout(this.readTimeout);
+        connection.setRequestMethod(this.requestMethod);
+        connection.setRequestProperty("User-agent", this.userAgent);
+
+        long start = System.nanoTime();
+        connection.connect();
+        this.pingTime = elapsed(start);
+
+        int code = connection.getResponseCode();
+        int firstByte = elapsed(start);
+        // closing the body stream may wait for the read in progress, body is cut by cancelled flag instead
+        this.connection = null;
+        checkCancelled();
+        if (code != 200) {
+            // fully read error body lets JDK keep-alive cache reuse the connection
+            drain(connection, true, start);
+            throw new ProxyTestConnectException("Response code:" + code);
+        }
+        int total = drain(connection, false, start) ? elapsed(start) : -1;
+        checkCancelled();
+        // connect() includes SOCKS handshake or CONNECT tunnel with TLS, they are not measured apart
+        if (this.type == Proxy.Type.SOCKS || _url.getProtocol().equalsIgnoreCase("https")) {
+            this.timings = new Timings(-1, pingTime, firstByte, total);
+        } else {
+            this.timings = new Timings(pingTime, -1, firstByte, total);
+        }
+    }
+
+    /**
+     * Test over SOCKS tunnel made by native handshake, request is sent with "Connection: close",
+     * so body ends with connection. Body read is bounded as in {@link #drain}
+     */
+    private void socksTest(URL _url) throws IOException, ProxyTestConnectException {
+        String host = _url.getHost();
+        int targetPort = (_url.getPort() != -1) ? _url.getPort() : _url.getDefaultPort();
+        boolean secure = _url.getProtocol().equalsIgnoreCase("https");
+        SocksClient client = new SocksClient(socksVersion, socksUser, socksPassword, true);
+        try (Socket socket = new Socket()) {
+            this.socket = socket;
+            checkCancelled();
+            socket.setSoTimeout(this.readTimeout);
+            long start = System.nanoTime();
+            socket.connect(new InetSocketAddress(this.ip, this.port), this.timeout);
+            int connect = elapsed(start);
+            InetAddress address = this.targetAddress;
+            if (socksVersion == SocksClient.Version.SOCKS4 && address == null) {
+                address = InetAddress.getByName(host);
+            }
+            client.connect(socket, host, address, targetPort);
+            this.pingTime = elapsed(start);
+            Socket stream = socket;
+            if (secure) {
+                SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, host, targetPort, false);
+                ssl.startHandshake();
+                stream = ssl;
+            }
+            String file = _url.getFile().isEmpty() ? "/" : _url.getFile();
+            OutputStream out = stream.getOutputStream();
+            out.write((this.requestMethod + " " + file + " HTTP/1.1\r\n" +
+                    "Host: " + _url.getAuthority() + "\r\n" +
+                    "User-Agent: " + this.userAgent + "\r\n" +
+                    "Accept: */*\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            InputStream in = new BufferedInputStream(stream.getInputStream());
+            int code = statusCode(in);
+            int firstByte = elapsed(start);
+            checkCancelled();
+            if (code != 200) {
+                throw new ProxyTestConnectException("Response code:" + code);
+            }
+            int total = -1;
+            try {
+                byte[] buffer = new byte[8192];
+                int body = 0;
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    checkCancelled();
+                    body += n;
+                    if (body > MAX_BODY || elapsed(start) > this.timeout) {
+                        break;
+                    }
+                }
+                if (n == -1) {
+                    total = elapsed(start);
+                }
+            } catch (IOException e) {
+                // body read errors don't fail passed test
+            }
+            checkCancelled();
+            this.timings = new Timings(connect, this.pingTime, firstByte, total);
+        } finally {
+            this.socket = null;
+        }
+    }
+
+    /**
+     * Read status line, headers are left in stream
+     * @return response status code
+     */
+    private static int statusCode(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Unexpected end of file from server");
+            }
+            line.append((char) c);
+        }
+        String[] parts = line.toString().trim().split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new ProtocolException("Invalid Http response");
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid Http response");
+        }
+    }
+
+    /**
+     * Cut the test running on other thread, it fails with {@link ProxyTestConnectException}.
+     * Socket of the test is closed, so blocked connect or read fails at once, except connect to proxy
+     * on platform thread, which is cut by connect timeout, and read of response body, which is cut
+     * after the current read
+     */
+    public void cancel() {
+        cancelled = true;
+        HttpURLConnection connection = this.connection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void checkCancelled() throws ProxyTestConnectException {
+        if (cancelled) {
+            throw new ProxyTestConnectException("Cancelled");
+        }
+    }
+
+    private static int elapsed(long start) {
+        return (int) ((System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Read response body to the end and close it, so the connection can be reused by the next test.
+     * Body read errors don't fail passed test, read stops when the test is cancelled.
+     * Read timeout bounds a single read only, so body longer than {@link #MAX_BODY} or still read when
+     * the test timeout has passed since start is cut, and its connection is closed instead of reused
+     * @param error - read error body of failed response
+     * @param start - start of the test
+     * @return true if body is fully read
+     */
+    private boolean drain(HttpURLConnection connection, boolean error, long start) {
+        try (InputStream in = error ? connection.getErrorStream() : connection.getInputStream()) {
+            if (in == null) {
+                return false;
+            }
+            byte[] buffer = new byte[8192];
+            int body = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (cancelled) {
+                    return false;
+                }
+                body += n;
+                if (body > MAX_BODY || elapsed(start) > this.timeout) {
+                    // close of unread stream would let JDK finish the body in background to reuse connection
+                    connection.disconnect();
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public boolean isPass() {
         return this.testResult;
     }
@@ -107,6 +337,13 @@ public class ProxyTester {
         return pingTime;
     }
 
+    /**
+     * @return phase marks of passed test
+     */
+    public Timings getTimings() {
+        return timings;
+    }
+
     public int getTimeout() {
         return timeout;
     }
@@ -140,6 +377,22 @@ public class ProxyTester {
         return type;
     }
 
+    /**
+     * @param user - user name of SOCKS5 authentication and SOCKS4 user id, or null
+     * @param password - SOCKS5 password
+     */
+    public void setSocksCredentials(String user, String password) {
+        this.socksUser = user;
+        this.socksPassword = password;
+    }
+
+    /**
+     * @param targetAddress - resolved host of tested url, so SOCKS4 test doesn't resolve it
+     */
+    public void setTargetAddress(InetAddress targetAddress) {
+        this.targetAddress = targetAddress;
+    }
+
     public String getUserAgent() {
         return userAgent;
     }
@@ -1,15 +1,82 @@
 package util.net;
 
 import java.net.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Objects;
 
 public class ProxyType {
+    /**
+     * Type codes of known proxy types, codes of other type names are registered on first use
+     */
+    public static final byte NONE = 0;
+    public static final byte HTTP = 1;
+    public static final byte HTTPS = 2;
+    public static final byte SOCKS = 3;
+    public static final byte FTP = 4;
+    /**
+     * SOCKS servers of known version, tested by {@link SocksClient}, while plain "socks" is left to JDK
+     */
+    public static final byte SOCKS4 = 5;
+    public static final byte SOCKS4A = 6;
+    public static final byte SOCKS5 = 7;
+    /**
+     * The last code of known types, codes of other type names depend on order of their first use
+     */
+    public static final byte LAST_KNOWN = SOCKS5;
+    private static final int MAX_CODES = 256;
+    private static volatile String[] names = {"", "http", "https", "socks", "ftp", "socks4", "socks4a", "socks5"};
+    private static final HashMap<String, Byte> codes = new HashMap<>();
+
+    static {
+        for (int i = 0; i < names.length; i++) {
+            codes.put(names[i], (byte) i);
+        }
+    }
+
     private String data;
 
     public ProxyType(String type) {
         this.data = type.toLowerCase();
     }
 
+    public ProxyType(byte code) {
+        this.data = getName(code);
+    }
+
+    /**
+     * @param code - type code
+     * @return type name
+     */
+    public static String getName(byte code) {
+        return names[code & 0xFF];
+    }
+
+    /**
+     * @param name - type name
+     * @return type code, registered when name is used first time
+     * @throws IllegalArgumentException when type codes are exhausted
+     */
+    public static synchronized byte getCode(String name) {
+        name = name.toLowerCase();
+        Byte code = codes.get(name);
+        if (code == null) {
+            if (names.length == MAX_CODES) {
+                throw new IllegalArgumentException("Too many proxy types");
+            }
+            code = (byte) names.length;
+            String[] extended = Arrays.copyOf(names, names.length + 1);
+            extended[code & 0xFF] = name;
+            names = extended;
+            codes.put(name, code);
+        }
+        return code;
+    }
+
+    public byte getCode() {
+        return getCode(data);
+    }
+
     public String getData() {
         return data;
     }
@@ -29,10 +96,29 @@ public class ProxyType {
             case "direct":
                 return Proxy.Type.DIRECT;
             case "socks":
+            case "socks4":
+            case "socks4a":
+            case "socks5":
                 return Proxy.Type.SOCKS;
         }
     }
 
+    /**
+     * @return SOCKS version of native client, null for other types and for plain "socks"
+     */
+    SocksClient.Version getSocksVersion() {
+        switch (data) {
+            case "socks4":
+                return SocksClient.Version.SOCKS4;
+            case "socks4a":
+                return SocksClient.Version.SOCKS4A;
+            case "socks5":
+                return SocksClient.Version.SOCKS5;
+            default:
+                return null;
+        }
+    }
+
     @Override
     public String toString() {
         return data;
@@ -0,0 +1,358 @@
+package util.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SOCKS4, SOCKS4a and SOCKS5 client handshake, for blocking sockets and for non-blocking engine.
+ * SOCKS5 greeting offers one authentication method, no authentication or username/password when credentials
+ * are set, so server choice is known in advance: pipelined handshake sends greeting, credentials and CONNECT
+ * request at once and reads all replies after one round trip instead of two or three.
+ * SOCKS4 has no remote name resolution, its target host is resolved by the caller, so handshake never waits for DNS.
+ * Immutable, thread safe.
+ */
+public class SocksClient {
+    public enum Version {
+        SOCKS4,
+        /**
+         * SOCKS4 with remote name resolution
+         */
+        SOCKS4A,
+        SOCKS5
+    }
+
+    private static final byte[] NOTHING = new byte[0];
+    private static final int NO_AUTHENTICATION = 0;
+    private static final int USERNAME_PASSWORD = 2;
+    private static final int NO_ACCEPTABLE_METHOD = 0xFF;
+    private static final int SOCKS4_GRANTED = 90;
+    /**
+     * The longest reply, SOCKS5 method and authentication replies with CONNECT reply of domain name address
+     */
+    private static final int MAX_REPLY = 2 + 2 + 4 + 1 + 255 + 2;
+
+    private final Version version;
+    private final String user;
+    private final String password;
+    private final boolean pipelined;
+
+    /**
+     * @param version - protocol version
+     * @param user - user name, SOCKS4 user id, or null
+     * @param password - SOCKS5 password, used with user name
+     * @param pipelined - send SOCKS5 requests without waiting for replies
+     */
+    public SocksClient(Version version, String user, String password, boolean pipelined) {
+        this.version = version;
+        this.user = user;
+        this.password = (password != null) ? password : "";
+        this.pipelined = pipelined;
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * New handshake of connection to target
+     * @param host - target host name or address literal
+     * @param address - resolved target host for SOCKS4, or null
+     * @param port - target port
+     * @throws UnknownHostException if SOCKS4 target host is a name without resolved IPv4 address
+     * @throws IllegalArgumentException if SOCKS5 target host name is longer than 255 bytes
+     */
+    public Handshake handshake(String host, InetAddress address, int port) throws UnknownHostException {
+        return new Handshake(host, address, port);
+    }
+
+    /**
+     * Make blocking handshake over socket connected to SOCKS server
+     * @param address - resolved target host for SOCKS4, or null
+     * @throws SocketException if server refuses the connection
+     * @throws IOException on socket errors
+     */
+    public void connect(Socket socket, String host, InetAddress address, int port) throws IOException {
+        Handshake handshake = handshake(host, address, port);
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        out.write(handshake.start());
+        out.flush();
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_REPLY);
+        while (!handshake.isComplete()) {
+            // target sends nothing before client request, so nothing past the replies is read
+            int count = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (count < 0) {
+                throw new EOFException("SOCKS: connection closed during handshake");
+            }
+            buffer.position(buffer.position() + count);
+            buffer.flip();
+            byte[] next = handshake.receive(buffer);
+            buffer.compact();
+            if (next.length > 0) {
+                out.write(next);
+                out.flush();
+            }
+        }
+    }
+
+    private enum Step {
+        METHOD,
+        AUTHENTICATION,
+        CONNECT,
+        COMPLETE
+    }
+
+    /**
+     * Handshake of one connection, it can be started again over new connection. Not thread safe
+     */
+    public class Handshake {
+        private final byte[] connectRequest;
+        private final byte[] authenticationRequest;
+        private Step step;
+
+        private Handshake(String host, InetAddress resolved, int port) throws UnknownHostException {
+            byte[] address = ipv4(host);
+            if (version == Version.SOCKS4 && address == null) {
+                if (!(resolved instanceof Inet4Address)) {
+                    throw new UnknownHostException("SOCKS4: no IPv4 address of " + host);
+                }
+                address = resolved.getAddress();
+            }
+            if (version == Version.SOCKS5) {
+                connectRequest = socks5Request(host, address, port);
+                authenticationRequest = (user != null) ? authenticationRequest() : null;
+            } else {
+                connectRequest = socks4Request(host, address, port);
+                authenticationRequest = null;
+            }
+        }
+
+        /**
+         * Start handshake over new connection
+         * @return bytes to send
+         */
+        public byte[] start() {
+            if (version != Version.SOCKS5) {
+                step = Step.CONNECT;
+                return connectRequest;
+            }
+            step = Step.METHOD;
+            byte[] greeting = (user == null) ? new byte[]{5, 1, NO_AUTHENTICATION} :
+                    pipelined ? new byte[]{5, 1, USERNAME_PASSWORD} :
+                            new byte[]{5, 2, NO_AUTHENTICATION, USERNAME_PASSWORD};
+            if (!pipelined) {
+                return greeting;
+            }
+            return concat(greeting, (authenticationRequest != null) ? authenticationRequest : NOTHING, connectRequest);
+        }
+
+        /**
+         * Consume complete replies from buffer
+         * @param in - buffer ready for read, its position is moved past consumed replies
+         * @return bytes to send, empty when handshake waits for more reply bytes or it is complete
+         * @throws SocketException if server refuses the connection or its reply is malformed
+         */
+        public byte[] receive(ByteBuffer in) throws SocketException {
+            while (true) {
+                switch (step) {
+                    case METHOD:
+                        if (in.remaining() < 2) {
+                            return NOTHING;
+                        }
+                        if (in.get() != 5) {
+                            throw new SocketException("Reply from SOCKS server has bad version");
+                        }
+                        int method = in.get() & 0xFF;
+                        if (method == USERNAME_PASSWORD && authenticationRequest != null) {
+                            step = Step.AUTHENTICATION;
+                            if (!pipelined) {
+                                return authenticationRequest;
+                            }
+                        } else if (method == NO_AUTHENTICATION && (!pipelined || authenticationRequest == null)) {
+                            step = Step.CONNECT;
+                            if (!pipelined) {
+                                return connectRequest;
+                            }
+                        } else if (method == NO_ACCEPTABLE_METHOD) {
+                            throw new SocketException("SOCKS : No acceptable methods");
+                        } else {
+                            throw new SocketException("SOCKS : unexpected authentication method " + method);
+                        }
+                        break;
+                    case AUTHENTICATION:
+                        if (in.remaining() < 2) {
+                            return NOTHING;
+                        }
+                        in.get();
+                        if (in.get() != 0) {
+                            throw new SocketException("SOCKS : authentication failed");
+                        }
+                        step = Step.CONNECT;
+                        if (!pipelined) {
+                            return connectRequest;
+                        }
+                        break;
+                    case CONNECT:
+                        if (!((version == Version.SOCKS5) ? socks5Reply(in) : socks4Reply(in))) {
+                            return NOTHING;
+                        }
+                        step = Step.COMPLETE;
+                        return NOTHING;
+                    default:
+                        return NOTHING;
+                }
+            }
+        }
+
+        public boolean isComplete() {
+            return step == Step.COMPLETE;
+        }
+    }
+
+    /**
+     * Consume SOCKS5 CONNECT reply when it is fully received
+     */
+    private static boolean socks5Reply(ByteBuffer in) throws SocketException {
+        if (in.remaining() < 5) {
+            return false;
+        }
+        int pos = in.position();
+        if (in.get(pos) != 5) {
+            throw new SocketException("Reply from SOCKS server has bad version");
+        }
+        if (in.get(pos + 1) != 0) {
+            throw new SocketException("SOCKS: connect failed, code " + in.get(pos + 1));
+        }
+        int length;
+        switch (in.get(pos + 3)) {
+            case 1:
+                length = 4 + 4 + 2;
+                break;
+            case 3:
+                length = 4 + 1 + (in.get(pos + 4) & 0xFF) + 2;
+                break;
+            case 4:
+                length = 4 + 16 + 2;
+                break;
+            default:
+                throw new SocketException("Reply from SOCKS server contains wrong code");
+        }
+        if (in.remaining() < length) {
+            return false;
+        }
+        in.position(pos + length);
+        return true;
+    }
+
+    /**
+     * Consume SOCKS4 reply when it is fully received
+     */
+    private static boolean socks4Reply(ByteBuffer in) throws SocketException {
+        if (in.remaining() < 8) {
+            return false;
+        }
+        int pos = in.position();
+        if (in.get(pos) != 0) {
+            throw new SocketException("Reply from SOCKS server has bad version");
+        }
+        int code = in.get(pos + 1) & 0xFF;
+        if (code != SOCKS4_GRANTED) {
+            throw new SocketException("SOCKS: connect failed, code " + code);
+        }
+        in.position(pos + 8);
+        return true;
+    }
+
+    private byte[] authenticationRequest() {
+        byte[] name = user.getBytes(StandardCharsets.UTF_8);
+        byte[] secret = password.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 255 || secret.length > 255) {
+            throw new IllegalArgumentException("SOCKS user name and password are limited to 255 bytes");
+        }
+        return concat(new byte[]{1, (byte) name.length}, name, new byte[]{(byte) secret.length}, secret);
+    }
+
+    /**
+     * @param address - IPv4 address of host, null to send host name
+     */
+    private static byte[] socks5Request(String host, byte[] address, int port) throws UnknownHostException {
+        byte[] head;
+        byte[] destination;
+        if (address != null) {
+            head = new byte[]{5, 1, 0, 1};
+            destination = address;
+        } else if (host.indexOf(':') >= 0) {
+            // IPv6 literal, not resolved
+            head = new byte[]{5, 1, 0, 4};
+            destination = InetAddress.getByName(host).getAddress();
+        } else {
+            byte[] name = host.getBytes(StandardCharsets.ISO_8859_1);
+            if (name.length > 255) {
+                throw new IllegalArgumentException("SOCKS5 target host name is limited to 255 bytes");
+            }
+            head = new byte[]{5, 1, 0, 3, (byte) name.length};
+            destination = name;
+        }
+        return concat(head, destination, new byte[]{(byte) (port >> 8), (byte) port});
+    }
+
+    /**
+     * @param address - IPv4 address of host, null to send host name by SOCKS4a
+     */
+    private byte[] socks4Request(String host, byte[] address, int port) {
+        byte[] userId = (user != null) ? user.getBytes(StandardCharsets.UTF_8) : NOTHING;
+        byte[] head = {4, 1, (byte) (port >> 8), (byte) port};
+        if (address != null) {
+            return concat(head, address, userId, new byte[]{0});
+        }
+        return concat(head, new byte[]{0, 0, 0, 1}, userId, new byte[]{0},
+                host.getBytes(StandardCharsets.ISO_8859_1), new byte[]{0});
+    }
+
+    /**
+     * @return address bytes of IPv4 literal, null if host is not IPv4 literal
+     */
+    private static byte[] ipv4(String host) {
+        byte[] res = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i <= host.length(); i++) {
+            char c = (i < host.length()) ? host.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                value = ((value < 0) ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && part < 4) {
+                res[part++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        return (part == 4) ? res : null;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] res = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, res, pos, part.length);
+            pos += part.length;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,77 @@
+package util.net;
+
+/**
+ * Phase marks of passed proxy test, ms from test start, -1 when phase is not measured.
+ * Marks are cumulative: handshake mark includes connect time, total includes all phases.
+ * Test over reused connection has no connect and handshake marks.
+ */
+public class Timings {
+    public enum Phase {
+        /**
+         * TCP connect to proxy
+         */
+        CONNECT("connect"),
+        /**
+         * SOCKS handshake or CONNECT tunnel
+         */
+        HANDSHAKE("handshake"),
+        /**
+         * First byte of response to tested url
+         */
+        FIRST_BYTE("first byte"),
+        /**
+         * Response fully received
+         */
+        TOTAL("total");
+
+        private final String title;
+
+        Phase(String title) {
+            this.title = title;
+        }
+
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+
+    private final int[] marks;
+    private final boolean reused;
+
+    public Timings(int connect, int handshake, int firstByte, int total) {
+        this(connect, handshake, firstByte, total, false);
+    }
+
+    /**
+     * @param reused - test was done over connection kept from previous test
+     */
+    public Timings(int connect, int handshake, int firstByte, int total, boolean reused) {
+        this.marks = new int[]{connect, handshake, firstByte, total};
+        this.reused = reused;
+    }
+
+    /**
+     * @return phase mark, ms from test start, -1 when phase is not measured
+     */
+    public int get(Phase phase) {
+        return marks[phase.ordinal()];
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * @return request cost without connection setup: total time after connect and handshake, ms,
+     * -1 when total is not measured
+     */
+    public int getRequest() {
+        int total = get(Phase.TOTAL);
+        if (total < 0) {
+            return -1;
+        }
+        int setup = Math.max(0, Math.max(get(Phase.CONNECT), get(Phase.HANDSHAKE)));
+        return total - setup;
+    }
+}